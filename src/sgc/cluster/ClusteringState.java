@@ -0,0 +1,231 @@
+package sgc.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+
+import sgc.model.PartitionAssignment;
+
+/**
+ * This class holds the partitions of a segment while they are searched: the
+ * number of ones of every block, the number of lines of every partition and
+ * the assignments of the source and destination nodes. The block counts are
+ * kept in two orientations, rows are the source partitions for the
+ * destination side operations (searchK = false) and the destination partitions
+ * for the source side ones (searchK = true). Only the orientation in use is up
+ * to date, the other one is refreshed when it is asked for.
+ *
+ * A trial change starts with mark() and ends with commit() or rollback(). The
+ * matrices of the mark are saved, they are small, and the node moves are logged
+ * in the journals of the assignments, so a rejected trial is undone without
+ * copying the assignments. Marks can be nested.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class ClusteringState {
+
+	/**
+	 * The state seen from one side. The matrices are owned by the state and
+	 * can be changed in place by the operations of this side.
+	 */
+	public static class Orientation {
+		boolean searchK;
+		//[numOfRowPartitions, numOfColPartitions]
+		DenseMatrix64F numberOfOnes;
+		//[numOfRowPartitions, 1]
+		DenseMatrix64F yLinesPerPartition;
+		//[1, numOfColPartitions]
+		DenseMatrix64F xLinesPerPartition;
+		PartitionAssignment yNodes;
+		PartitionAssignment xNodes;
+
+		Orientation(boolean searchK, DenseMatrix64F numberOfOnes, DenseMatrix64F yLinesPerPartition,
+				DenseMatrix64F xLinesPerPartition, PartitionAssignment yNodes, PartitionAssignment xNodes) {
+			this.searchK = searchK;
+			this.numberOfOnes = numberOfOnes;
+			this.yLinesPerPartition = yLinesPerPartition;
+			this.xLinesPerPartition = xLinesPerPartition;
+			this.yNodes = yNodes;
+			this.xNodes = xNodes;
+		}
+
+		public boolean isSearchK() {
+			return this.searchK;
+		}
+
+		public int getNumOfRowPartitions() {
+			return this.numberOfOnes.getNumRows();
+		}
+
+		public int getNumOfColPartitions() {
+			return this.numberOfOnes.getNumCols();
+		}
+
+		public DenseMatrix64F getNumberOfOnes() {
+			return this.numberOfOnes;
+		}
+
+		public DenseMatrix64F getYLinesPerPartition() {
+			return this.yLinesPerPartition;
+		}
+
+		public DenseMatrix64F getXLinesPerPartition() {
+			return this.xLinesPerPartition;
+		}
+
+		public PartitionAssignment getYNodes() {
+			return this.yNodes;
+		}
+
+		public PartitionAssignment getXNodes() {
+			return this.xNodes;
+		}
+	}
+
+	private static class Checkpoint {
+		boolean searchK;
+		DenseMatrix64F numberOfOnes = new DenseMatrix64F(1, 1);
+		DenseMatrix64F yLinesPerPartition = new DenseMatrix64F(1, 1);
+		DenseMatrix64F xLinesPerPartition = new DenseMatrix64F(1, 1);
+		int srcJournalSize;
+		int dstJournalSize;
+	}
+
+	Orientation dstSide;
+	Orientation srcSide;
+	//the orientation that is up to date
+	boolean searchK = false;
+	//checkpoints are reused by depth, so nested trials do not allocate
+	List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+	int depth = 0;
+
+	/**
+	 * Wraps the input matrices and assignments, which are changed in place
+	 * @param numberOfOnes - [k, l]
+	 * @param rowsPerPartition - [k, 1]
+	 * @param colsPerPartition - [1, l]
+	 */
+	public ClusteringState(DenseMatrix64F numberOfOnes, DenseMatrix64F rowsPerPartition,
+			DenseMatrix64F colsPerPartition, PartitionAssignment srcNodes, PartitionAssignment dstNodes) {
+		this.dstSide = new Orientation(false, numberOfOnes, rowsPerPartition, colsPerPartition, srcNodes,
+				dstNodes);
+		this.srcSide = new Orientation(true, new DenseMatrix64F(1, 1), new DenseMatrix64F(1, 1),
+				new DenseMatrix64F(1, 1), dstNodes, srcNodes);
+	}
+
+	/**
+	 * @param searchK - true for the source side
+	 * @return the orientation of the side, the other orientation is out of date
+	 * until it is asked for
+	 */
+	public Orientation orientation(boolean searchK) {
+		if(searchK != this.searchK) {
+			refresh(side(searchK), side(this.searchK));
+			this.searchK = searchK;
+		}
+		return side(searchK);
+	}
+
+	private Orientation side(boolean searchK) {
+		return searchK ? this.srcSide : this.dstSide;
+	}
+
+	/**
+	 * The block counts are transposed on purpose. The searches change the
+	 * matrices of their side in place with EJML operations (insert, reshape,
+	 * column merges), so keeping the other side in step would touch every
+	 * one of them, while a k x l transpose per change of side costs little
+	 * next to a sweep over the nodes.
+	 */
+	private void refresh(Orientation to, Orientation from) {
+		to.numberOfOnes.reshape(from.numberOfOnes.getNumCols(), from.numberOfOnes.getNumRows(), false);
+		CommonOps.transpose(from.numberOfOnes, to.numberOfOnes);
+		int numOfRowPartitions = from.xLinesPerPartition.getNumElements();
+		to.yLinesPerPartition.reshape(numOfRowPartitions, 1, false);
+		System.arraycopy(from.xLinesPerPartition.data, 0, to.yLinesPerPartition.data, 0, numOfRowPartitions);
+		int numOfColPartitions = from.yLinesPerPartition.getNumElements();
+		to.xLinesPerPartition.reshape(1, numOfColPartitions, false);
+		System.arraycopy(from.yLinesPerPartition.data, 0, to.xLinesPerPartition.data, 0, numOfColPartitions);
+	}
+
+	/**
+	 * Starts a trial change
+	 */
+	public void mark() {
+		if(this.depth == this.checkpoints.size()) {
+			this.checkpoints.add(new Checkpoint());
+		}
+		if(this.depth == 0) {
+			this.dstSide.xNodes.beginJournal();
+			this.dstSide.yNodes.beginJournal();
+		}
+		Checkpoint checkpoint = this.checkpoints.get(this.depth++);
+		Orientation current = side(this.searchK);
+		checkpoint.searchK = this.searchK;
+		checkpoint.numberOfOnes.setReshape(current.numberOfOnes);
+		checkpoint.yLinesPerPartition.setReshape(current.yLinesPerPartition);
+		checkpoint.xLinesPerPartition.setReshape(current.xLinesPerPartition);
+		checkpoint.srcJournalSize = getSrcNodes().getJournalSize();
+		checkpoint.dstJournalSize = getDstNodes().getJournalSize();
+	}
+
+	/**
+	 * Keeps the changes since the last mark
+	 */
+	public void commit() {
+		this.depth--;
+		if(this.depth == 0) {
+			endJournals();
+		}
+	}
+
+	/**
+	 * Undoes the changes since the last mark
+	 */
+	public void rollback() {
+		Checkpoint checkpoint = this.checkpoints.get(--this.depth);
+		Orientation restored = side(checkpoint.searchK);
+		restored.numberOfOnes.setReshape(checkpoint.numberOfOnes);
+		restored.yLinesPerPartition.setReshape(checkpoint.yLinesPerPartition);
+		restored.xLinesPerPartition.setReshape(checkpoint.xLinesPerPartition);
+		this.searchK = checkpoint.searchK;
+		getSrcNodes().rollback(checkpoint.srcJournalSize);
+		getDstNodes().rollback(checkpoint.dstJournalSize);
+		if(this.depth == 0) {
+			endJournals();
+		}
+	}
+
+	private void endJournals() {
+		getSrcNodes().endJournal();
+		getDstNodes().endJournal();
+	}
+
+	/**
+	 * @return the number of source partitions
+	 */
+	public int getK() {
+		Orientation current = side(this.searchK);
+		return this.searchK ? current.getNumOfColPartitions() : current.getNumOfRowPartitions();
+	}
+
+	/**
+	 * @return the number of destination partitions
+	 */
+	public int getL() {
+		Orientation current = side(this.searchK);
+		return this.searchK ? current.getNumOfRowPartitions() : current.getNumOfColPartitions();
+	}
+
+	public PartitionAssignment getSrcNodes() {
+		return this.dstSide.yNodes;
+	}
+
+	public PartitionAssignment getDstNodes() {
+		return this.dstSide.xNodes;
+	}
+}
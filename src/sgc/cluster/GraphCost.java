@@ -1,80 +1,122 @@
 package sgc.cluster;
 
 import org.ejml.data.DenseMatrix64F;
-import org.ejml.ops.CommonOps;
 
 import sgc.utils.Calculations;
 
 /**
  * This class implements all the cost computation function
- * for the GraphScope algorithm.
- * 
+ * for the GraphScope algorithm. The matrix functions delegate to
+ * scalar kernels that read the block counts and the partition sizes
+ * from primitive arrays and do not allocate.
+ *
  * @author sbeis
  * @email sot.beis@gmail.com
  *
  */
 public class GraphCost {
-	
+
+	Calculations calculations = new Calculations();
+
 	public double segmentEncodingCost(int numberOfSrcNodes, int numberOfDstNodes, int k, int l, int segmentSize,
-			DenseMatrix64F numberOfOnes, DenseMatrix64F rowsPerPartition, 
+			DenseMatrix64F numberOfOnes, DenseMatrix64F rowsPerPartition,
 			DenseMatrix64F colsPerPartition) {
-		Calculations calculations = new Calculations();
-		DenseMatrix64F numOfOnes = numberOfOnes.copy();
-		double partitionEncodingCost = partitionEncodingCost(k, l, numberOfSrcNodes, numberOfDstNodes,
-				rowsPerPartition, colsPerPartition);
-		DenseMatrix64F blocksSize = calculations.calcBlocksSize(segmentSize, rowsPerPartition, colsPerPartition);		
-		double graphEncodingCost = graphEncodingCost(numOfOnes, blocksSize);
-		double edgesEncodingCost = edgesEncodingCost(blocksSize);
-		double segmentEncodingCost = calculations.logstar(segmentSize) + edgesEncodingCost + 
+		return segmentEncodingCost(k, l, segmentSize, numberOfOnes.data, rowsPerPartition.data,
+				colsPerPartition.data);
+	}
+
+	/**
+	 * @param numberOfOnes - the number of ones of each block, row major [k, l]
+	 * @param rowsPerPartition - the number of rows of each row partition, length k
+	 * @param colsPerPartition - the number of columns of each column partition, length l
+	 */
+	public double segmentEncodingCost(int k, int l, int segmentSize, double[] numberOfOnes,
+			double[] rowsPerPartition, double[] colsPerPartition) {
+		double partitionEncodingCost = partitionEncodingCost(k, l, rowsPerPartition, colsPerPartition);
+		double graphEncodingCost = graphEncodingCost(k, l, segmentSize, numberOfOnes, rowsPerPartition,
+				colsPerPartition);
+		double edgesEncodingCost = edgesEncodingCost(k, l, segmentSize, rowsPerPartition, colsPerPartition);
+		double segmentEncodingCost = this.calculations.logstar(segmentSize) + edgesEncodingCost +
 				partitionEncodingCost + graphEncodingCost;
 		return segmentEncodingCost;
 	}
-	
-	public double partitionEncodingCost(int k, int l, int numberOfSrcNodes, int numberOfDstNodes, 
+
+	public double partitionEncodingCost(int k, int l, int numberOfSrcNodes, int numberOfDstNodes,
 			DenseMatrix64F rowsPerPartition, DenseMatrix64F colsPerPartition) {
-		Calculations calculations = new Calculations();
+		return partitionEncodingCost(k, l, rowsPerPartition.data, colsPerPartition.data);
+	}
+
+	public double partitionEncodingCost(int k, int l, double[] rowsPerPartition, double[] colsPerPartition) {
 		double partitionCost = 0;
-		partitionCost = calculations.logstar(k) + calculations.logstar(l);
+		partitionCost = this.calculations.logstar(k) + this.calculations.logstar(l);
 		//Encoding cost for source partitions
-		DenseMatrix64F sourcePartitionsEncoding = new DenseMatrix64F(k ,1);
-		for(int i = 0; i < k; i++) {
-			double rowsSum = 0;
-			int yIndex = k - i;
-			rowsSum = CommonOps.elementSum(CommonOps.extract(rowsPerPartition, 0, yIndex, 0, 1));
-			rowsSum = rowsSum - k + i + 1;
-			sourcePartitionsEncoding.add(i, 0, rowsSum);
-		}
-		partitionCost = partitionCost + CommonOps.elementSum(calculations.encodingBits(sourcePartitionsEncoding));
-
+		partitionCost = partitionCost + partitionsEncodingCost(k, rowsPerPartition);
 		//Encoding cost for destination partitions
-		DenseMatrix64F dstPartitionsEncoding = new DenseMatrix64F(1, l);
-		for(int i = 0; i < l; i++) {
-			double colsSum = 0;
-			int xIndex = l - i;
-			colsSum = CommonOps.elementSum(CommonOps.extract(colsPerPartition, 0, 1, 0, xIndex));
-			colsSum = colsSum - l + i + 1;
-			dstPartitionsEncoding.add(0, i, colsSum);
-		}
-		partitionCost = partitionCost + CommonOps.elementSum(calculations.encodingBits(dstPartitionsEncoding));
-
+		partitionCost = partitionCost + partitionsEncodingCost(l, colsPerPartition);
 		return partitionCost;
 	}
-		
+
+	/**
+	 * Encoding cost of the sizes of the partitions of one side. The term of the
+	 * first t partitions is encodingBits(linesSum - t + 1), where linesSum is the
+	 * number of lines of these partitions, so a running sum gives all the terms
+	 * in one pass.
+	 */
+	public double partitionsEncodingCost(int numberOfPartitions, double[] linesPerPartition) {
+		double partitionsEncoding = 0;
+		double linesSum = 0;
+		for(int t = 1; t <= numberOfPartitions; t++) {
+			linesSum += linesPerPartition[t-1];
+			partitionsEncoding += this.calculations.encodingBits(linesSum - t + 1);
+		}
+		return partitionsEncoding;
+	}
+
 	public double graphEncodingCost(DenseMatrix64F numberOfOnes, DenseMatrix64F blocksSize) {
-		Calculations calculations = new Calculations();
-		double graphEncodingCost = 0;
-		DenseMatrix64F blocksEntropy = calculations.calcBlocksEntropy(blocksSize, numberOfOnes);
-		graphEncodingCost =  Math.ceil(CommonOps.elementSum(blocksEntropy));
-		return graphEncodingCost;
+		double blocksEntropy = 0;
+		for(int i = 0; i < blocksSize.getNumElements(); i++) {
+			blocksEntropy += blockEntropy(numberOfOnes.data[i], blocksSize.data[i]);
+		}
+		return Math.ceil(blocksEntropy);
+	}
+
+	/**
+	 * The blocks are visited in row major order, as CommonOps.elementSum does,
+	 * so the sum is the same as the one of the matrix implementation
+	 */
+	public double graphEncodingCost(int k, int l, int segmentSize, double[] numberOfOnes,
+			double[] rowsPerPartition, double[] colsPerPartition) {
+		double blocksEntropy = 0;
+		for(int i = 0; i < k; i++) {
+			double rowBlockSize = segmentSize * rowsPerPartition[i];
+			for(int j = 0; j < l; j++) {
+				blocksEntropy += blockEntropy(numberOfOnes[i*l + j], rowBlockSize * colsPerPartition[j]);
+			}
+		}
+		return Math.ceil(blocksEntropy);
 	}
-	
+
 	public double edgesEncodingCost(DenseMatrix64F blocksSize) {
-		Calculations calculations = new Calculations();
 		double edgesEncodingCost = 0;
-		DenseMatrix64F bSizes = blocksSize.copy();
-		CommonOps.add(bSizes, 1);
-		bSizes = calculations.encodingBits(bSizes);
-		edgesEncodingCost = CommonOps.elementSum(bSizes);
+		for(int i = 0; i < blocksSize.getNumElements(); i++) {
+			edgesEncodingCost += this.calculations.encodingBits(blocksSize.data[i] + 1);
+		}
+		return edgesEncodingCost;
+	}
+
+	public double edgesEncodingCost(int k, int l, int segmentSize, double[] rowsPerPartition,
+			double[] colsPerPartition) {
+		double edgesEncodingCost = 0;
+		for(int i = 0; i < k; i++) {
+			double rowBlockSize = segmentSize * rowsPerPartition[i];
+			for(int j = 0; j < l; j++) {
+				edgesEncodingCost += this.calculations.encodingBits(rowBlockSize * colsPerPartition[j] + 1);
+			}
+		}
 		return edgesEncodingCost;
 	}
+
+	public double blockEntropy(double numberOfOnes, double blockSize) {
+		return this.calculations.blockEntropy(numberOfOnes, blockSize);
+	}
 }
@@ -1,12 +1,16 @@
 package sgc.cluster;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 import org.ejml.data.DenseMatrix64F;
-import org.ejml.ops.CommonOps;
 
+import sgc.model.AdjacencyGraph;
+import sgc.model.EdgeDelta;
 import sgc.model.GraphSegment;
+import sgc.model.PartitionAssignment;
+import sgc.model.SparseGraph;
+import sgc.utils.Calculations;
 
 /**
  * This class implements the main function of the GraphScope algorithm
@@ -22,8 +26,8 @@ public class GraphScope {
 	
 	static final double costThreshold = -0.001;
 	static final double similarityThreshold = 0.1;
-	static final String resumeInit = "resume";
-	static final String freshStartInit = "freshStart";
+	public static final String resumeInit = "resume";
+	public static final String freshStartInit = "freshStart";
 	
 	int k;
 	int l;
@@ -32,8 +36,61 @@ public class GraphScope {
 	long estimatedTime;
 	boolean newSegment;
 	GraphSegment newGraphSegment = null;
+	ForkJoinPool pool;
+	boolean activeSetReGroup = false;
+	double densityTolerance = 0.01;
+	//the block counts of the last new graph and the partitions they were counted with
+	DenseMatrix64F lastNumberOfOnes;
+	PartitionAssignment lastSrcPartitions;
+	PartitionAssignment lastDstPartitions;
+	long lastSrcVersion;
+	long lastDstVersion;
 	
-	public void run(GraphSegment initialGraphSegment, DenseMatrix64F newGraph, String initialization) {
+	public GraphScope() {
+		this(null);
+	}
+	
+	/**
+	 * @param pool - the pool used by the partition search, null to search serially
+	 */
+	public GraphScope(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Selects the approximate active set ReGroup, see ReGroup.setActiveSet
+	 */
+	public void setActiveSetReGroup(boolean activeSetReGroup, double densityTolerance) {
+		this.activeSetReGroup = activeSetReGroup;
+		this.densityTolerance = densityTolerance;
+	}
+	
+	/**
+	 * Searches for the partitions of the segment without adding a new graph
+	 */
+	public void run(GraphSegment initialGraphSegment, String initialization) throws IOException {
+		run(initialGraphSegment, (AdjacencyGraph)null, initialization);
+	}
+	
+	public void run(GraphSegment initialGraphSegment, DenseMatrix64F newGraph, String initialization) throws IOException {
+		AdjacencyGraph graph = null;
+		if(newGraph != null) {
+			graph = new SparseGraph(newGraph);
+		}
+		run(initialGraphSegment, graph, initialization);
+	}
+	
+	public void run(GraphSegment initialGraphSegment, AdjacencyGraph newGraph, String initialization) throws IOException {
+		run(initialGraphSegment, newGraph, null, initialization);
+	}
+	
+	/**
+	 * @param delta - the edges that changed from the graph of the previous call,
+	 * null if unknown. If the partitions of the segment did not change since then, 
+	 * the block counts of the new graph are updated from the previous ones.
+	 */
+	public void run(GraphSegment initialGraphSegment, AdjacencyGraph newGraph, EdgeDelta delta, 
+			String initialization) throws IOException {
 		long startTime = System.nanoTime();
 		int numberOfSrcNodes = initialGraphSegment.getNumberOfSrcNodes();
 		int numberOfDstNodes = initialGraphSegment.getNumberOfDstNodes();
@@ -43,8 +100,8 @@ public class GraphScope {
 		DenseMatrix64F numberOfOnes;
 		DenseMatrix64F rowsPerPartition = initialGraphSegment.getRowsPerPartition();
 		DenseMatrix64F colsPerPartition = initialGraphSegment.getColsPerPartition();
-		Map<Integer, Integer> srcNodes = initialGraphSegment.getSrcNodes();
-		Map<Integer, Integer> dstNodes = initialGraphSegment.getDstNodes();
+		PartitionAssignment srcNodes = initialGraphSegment.getSrcPartitions();
+		PartitionAssignment dstNodes = initialGraphSegment.getDstPartitions();
 		double initialCost = initialGraphSegment.getEncodingCost();
 		this.newSegment = false;
 		if(newGraph == null) {
@@ -62,15 +119,16 @@ public class GraphScope {
 		}
 		else {			
 			//initialize new graph as a segment with equal values as the previous segment
-			this.newGraphSegment = new GraphSegment(initialGraphSegment, newGraph);
+			this.newGraphSegment = new GraphSegment(initialGraphSegment, newGraph, 
+					newGraphNumberOfOnes(initialGraphSegment, newGraph, delta));
 			double newCost = this.newGraphSegment.getEncodingCost();
 
-			//merge segments in order to see if we have cost reduction
-			initialGraphSegment.addGraph(newGraph, this.newGraphSegment.getNumberOfOnes());
-			double mergedCost = initialGraphSegment.getEncodingCost();
+			//the cost of the merged segments needs only the block counts
+			double mergedCost = initialGraphSegment.mergedEncodingCost(this.newGraphSegment.getNumberOfOnes());
 			this.similarity = mergedCost - initialCost - newCost;
 			if(mergedCost - initialCost < newCost) {
 				System.out.println("Merge new graph to the old segment");
+				initialGraphSegment.addGraph(newGraph, this.newGraphSegment.getNumberOfOnes());
 				segmentSize = initialGraphSegment.getSegmentSize();
 				numberOfOnes = initialGraphSegment.getNumberOfOnes();
 				searchForPartitions(this.k, this.l, numberOfSrcNodes, numberOfDstNodes, segmentSize, mergedCost, 
@@ -85,7 +143,6 @@ public class GraphScope {
 			}
 			else {
 				System.out.println("Create new segment");
-				initialGraphSegment.removeGraph(newGraph, this.newGraphSegment.getNumberOfOnes());
 				if(initialization == resumeInit) {
 					//do nothing
 				}
@@ -98,8 +155,8 @@ public class GraphScope {
 				rowsPerPartition = this.newGraphSegment.getRowsPerPartition();
 				colsPerPartition = this.newGraphSegment.getColsPerPartition();
 				numberOfOnes = this.newGraphSegment.getNumberOfOnes();
-				srcNodes = this.newGraphSegment.getSrcNodes();
-				dstNodes = this.newGraphSegment.getDstNodes();
+				srcNodes = this.newGraphSegment.getSrcPartitions();
+				dstNodes = this.newGraphSegment.getDstPartitions();
 				newCost = this.newGraphSegment.getEncodingCost();
 				searchForPartitions(this.k, this.l, numberOfSrcNodes, numberOfDstNodes, segmentSize, newCost, 
 						numberOfOnes, rowsPerPartition, colsPerPartition, this.newGraphSegment.getGraph(), 
@@ -118,12 +175,36 @@ public class GraphScope {
 	}
 	
 	
+	/**
+	 * @return the block counts of the new graph in the partitions of the segment
+	 */
+	private DenseMatrix64F newGraphNumberOfOnes(GraphSegment segment, AdjacencyGraph newGraph, EdgeDelta delta) {
+		PartitionAssignment srcPartitions = segment.getSrcPartitions();
+		PartitionAssignment dstPartitions = segment.getDstPartitions();
+		if(delta != null && this.lastNumberOfOnes != null && this.lastSrcPartitions == srcPartitions && 
+				this.lastDstPartitions == dstPartitions && this.lastSrcVersion == srcPartitions.getVersion() && 
+				this.lastDstVersion == dstPartitions.getVersion()) {
+			delta.addBlockOnes(srcPartitions.getLabels(), dstPartitions.getLabels(), this.lastNumberOfOnes);
+		}
+		else {
+			Calculations calculations = new Calculations();
+			this.lastNumberOfOnes = calculations.calcNumberOfOnes(segment.getK(), segment.getL(), newGraph, 
+					srcPartitions, dstPartitions);
+		}
+		this.lastSrcPartitions = srcPartitions;
+		this.lastDstPartitions = dstPartitions;
+		this.lastSrcVersion = srcPartitions.getVersion();
+		this.lastDstVersion = dstPartitions.getVersion();
+		return this.lastNumberOfOnes.copy();
+	}
+	
 	public void searchForPartitions(int k, int l, int numberOfSrcNodes, int numberOfDstNodes, int segmentSize, 
 			double cost, DenseMatrix64F numberOfOnes, DenseMatrix64F rowsPerPartition, 
-			DenseMatrix64F colsPerPartition,  DenseMatrix64F graph, 
-			Map<Integer, Integer> srcNodes, Map<Integer, Integer> dstNodes) {
-		SearchKL searchKL = new SearchKL();
-		ReGroup reGroup = new ReGroup();
+			DenseMatrix64F colsPerPartition,  AdjacencyGraph graph, 
+			PartitionAssignment srcNodes, PartitionAssignment dstNodes) {
+		SearchKL searchKL = new SearchKL(this.pool);
+		ReGroup reGroup = new ReGroup(this.pool);
+		reGroup.setActiveSet(this.activeSetReGroup, this.densityTolerance);
 		this.l = l;
 		this.k = k;
 		this.afterSearchCost = cost;
@@ -132,23 +213,17 @@ public class GraphScope {
 		double newCost = cost;
 		double costBeforeSplit = 0;
 		boolean searchK;
-		DenseMatrix64F newNumberOfOnes = new DenseMatrix64F(numberOfOnes);
-		DenseMatrix64F newColsPerPartition = new DenseMatrix64F(colsPerPartition);
-		DenseMatrix64F newRowsPerPartition = new DenseMatrix64F(rowsPerPartition);
-		Map<Integer, Integer> newSrcNodes = new HashMap<Integer, Integer>(srcNodes);
-		Map<Integer, Integer> newDstNodes = new HashMap<Integer, Integer>(dstNodes);
+		//the search changes the input partitions in place
+		ClusteringState state = new ClusteringState(numberOfOnes, rowsPerPartition, colsPerPartition, 
+				srcNodes, dstNodes);
+		ClusteringState.Orientation side;
 		boolean noChange = false;
 		while(!noChange) {
 			newL = this.l;
 			newK = this.k;
 			cost = this.afterSearchCost;
 			newCost = this.afterSearchCost;
-			newNumberOfOnes.setReshape(numberOfOnes);
-			newColsPerPartition.setReshape(colsPerPartition);
-			newRowsPerPartition.setReshape(rowsPerPartition);
-			newSrcNodes.putAll(srcNodes);
-			newDstNodes.putAll(dstNodes);
-			//MERGE
+			//MERGE, a merge is applied only if it decreases the cost
 			boolean noMerge = false;
 			while(!noMerge) {
 				//try to merge destination partitions
@@ -156,9 +231,10 @@ public class GraphScope {
 				if(this.l > 1) {
 					System.out.println("Try to merge destination partitions");
 					System.out.println("k= "+newK+" l= "+newL);
+					side = state.orientation(searchK);
 					searchKL.merge(newK, newL, numberOfSrcNodes, numberOfDstNodes, segmentSize, newCost, 
-							newNumberOfOnes, newRowsPerPartition, newColsPerPartition, 
-							newDstNodes, searchK);
+							side.getNumberOfOnes(), side.getYLinesPerPartition(), side.getXLinesPerPartition(), 
+							side.getXNodes(), searchK);
 					newL = searchKL.getNumberOfPartitions();
 					newCost = searchKL.getCost();
 				}
@@ -167,17 +243,12 @@ public class GraphScope {
 				if(this.k > 1) {
 					System.out.println("Try to merge source partitions");
 					System.out.println("k= "+newK+" l= "+newL);
-					CommonOps.transpose(newNumberOfOnes);
-					CommonOps.transpose(newRowsPerPartition);
-					CommonOps.transpose(newColsPerPartition);
+					side = state.orientation(searchK);
 					searchKL.merge(newL, newK, numberOfDstNodes, numberOfSrcNodes, segmentSize, newCost, 
-							newNumberOfOnes, newColsPerPartition, newRowsPerPartition, 
-							newSrcNodes, searchK);
+							side.getNumberOfOnes(), side.getYLinesPerPartition(), side.getXLinesPerPartition(), 
+							side.getXNodes(), searchK);
 					newK = searchKL.getNumberOfPartitions();
 					newCost = searchKL.getCost();
-					CommonOps.transpose(newNumberOfOnes);
-					CommonOps.transpose(newRowsPerPartition);
-					CommonOps.transpose(newColsPerPartition);			
 				}
 				if(newCost < cost) {
 					cost = newCost;
@@ -186,11 +257,6 @@ public class GraphScope {
 					noMerge = true;
 					this.k = newK;
 					this.l = newL;
-					numberOfOnes.setReshape(newNumberOfOnes);
-					rowsPerPartition.setReshape(newRowsPerPartition);
-					colsPerPartition.setReshape(newColsPerPartition);
-					srcNodes.putAll(newSrcNodes);
-					dstNodes.putAll(newDstNodes);
 				}
 			}
 			
@@ -199,70 +265,57 @@ public class GraphScope {
 			boolean noSplit = false;
 			while(!noSplit) {
 				//try to split destination partitions
-				newNumberOfOnes = new DenseMatrix64F(numberOfOnes);
-				newColsPerPartition = new DenseMatrix64F(colsPerPartition);
-				newRowsPerPartition = new DenseMatrix64F(rowsPerPartition);
-				newSrcNodes = new HashMap<Integer, Integer>(srcNodes);
-				newDstNodes = new HashMap<Integer, Integer>(dstNodes);
+				state.mark();
 				searchK = false;
 				System.out.println("Try to split destination partitions");
 				System.out.println("k= "+this.k+" l= "+this.l);
-				searchKL.split(this.k, this.l, numberOfSrcNodes, numberOfDstNodes, segmentSize, newNumberOfOnes, 
-						newRowsPerPartition, newColsPerPartition, graph, newSrcNodes, 
-						newDstNodes, searchK);
+				side = state.orientation(searchK);
+				searchKL.split(this.k, this.l, numberOfSrcNodes, numberOfDstNodes, segmentSize, 
+						side.getNumberOfOnes(), side.getYLinesPerPartition(), side.getXLinesPerPartition(), graph, 
+						side.getYNodes(), side.getXNodes(), searchK);
 				newL = searchKL.getNumberOfPartitions();
 				if(newL > this.l) {
 					System.out.println("l increased");
-					reGroup.coCluster(this.k, newL, numberOfSrcNodes, numberOfDstNodes, segmentSize, 
-							newRowsPerPartition, newColsPerPartition, newNumberOfOnes, graph, 
-							newSrcNodes, newDstNodes);
+					reGroup.coCluster(state, numberOfSrcNodes, numberOfDstNodes, segmentSize, graph);
 					newCost = reGroup.getCost();
 					if(newCost < cost) {
 						System.out.println("Cost decreased");
 						this.l = newL;
-						numberOfOnes.setReshape(newNumberOfOnes);
-						rowsPerPartition.setReshape(newRowsPerPartition);
-						colsPerPartition.setReshape(newColsPerPartition);
-						srcNodes.putAll(newSrcNodes);
-						dstNodes.putAll(newDstNodes);
 						cost = newCost;
 					}
 				}
+				if(this.l == newL) {
+					state.commit();
+				}
+				else {
+					state.rollback();
+				}
 				//try to split source partitions
-				newNumberOfOnes = new DenseMatrix64F(numberOfOnes);
-				newColsPerPartition = new DenseMatrix64F(colsPerPartition);
-				newRowsPerPartition = new DenseMatrix64F(rowsPerPartition);
-				newSrcNodes = new HashMap<Integer, Integer>(srcNodes);
-				newDstNodes = new HashMap<Integer, Integer>(dstNodes);
-				CommonOps.transpose(newNumberOfOnes);
-				CommonOps.transpose(newRowsPerPartition);
-				CommonOps.transpose(newColsPerPartition);
+				state.mark();
 				searchK = true;
 				System.out.println("Try to split source partitions");
 				System.out.println("k= "+this.k+" l= "+this.l);
-				searchKL.split(this.l, this.k, numberOfDstNodes, numberOfSrcNodes, segmentSize, newNumberOfOnes, 
-						newColsPerPartition, newRowsPerPartition, graph, newDstNodes, newSrcNodes, searchK);
+				side = state.orientation(searchK);
+				searchKL.split(this.l, this.k, numberOfDstNodes, numberOfSrcNodes, segmentSize, 
+						side.getNumberOfOnes(), side.getYLinesPerPartition(), side.getXLinesPerPartition(), graph, 
+						side.getYNodes(), side.getXNodes(), searchK);
 				newK = searchKL.getNumberOfPartitions();
-				CommonOps.transpose(newNumberOfOnes);
-				CommonOps.transpose(newRowsPerPartition);
-				CommonOps.transpose(newColsPerPartition);
 				if(newK > this.k) {
 					System.out.println("k increased");
-					reGroup.coCluster(newK, this.l, numberOfSrcNodes, numberOfDstNodes, segmentSize, 
-							newRowsPerPartition, newColsPerPartition, newNumberOfOnes, graph, 
-							newSrcNodes, newDstNodes);
+					reGroup.coCluster(state, numberOfSrcNodes, numberOfDstNodes, segmentSize, graph);
 					newCost = reGroup.getCost();
 					if(newCost < cost) {
 						System.out.println("Cost decreased");
 						this.k = newK;
-						numberOfOnes.setReshape(newNumberOfOnes);
-						rowsPerPartition.setReshape(newRowsPerPartition);
-						colsPerPartition.setReshape(newColsPerPartition);
-						srcNodes.putAll(newSrcNodes);
-						dstNodes.putAll(newDstNodes);
 						cost = newCost;
 					}
 				}
+				if(this.k == newK) {
+					state.commit();
+				}
+				else {
+					state.rollback();
+				}
 				if(cost < costBeforeSplit) {
 					costBeforeSplit = cost;
 				}
@@ -277,7 +330,8 @@ public class GraphScope {
 				noChange = true;
 			}
 		}
-		
+		//leave the input matrices in their own orientation
+		state.orientation(false);
 	}
 	
 	public int getK() {
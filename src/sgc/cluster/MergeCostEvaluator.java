@@ -0,0 +1,128 @@
+package sgc.cluster;
+
+import org.ejml.data.DenseMatrix64F;
+
+import sgc.utils.Calculations;
+
+/**
+ * This class computes the encoding cost of a segment after the merge of two
+ * column partitions without building the merged matrices. The entropy and the
+ * edges encoding cost of every column of blocks and the encoding cost of the
+ * row partitions are computed once, so a candidate merge only recomputes the
+ * merged column of blocks and the encoding cost of the column partitions,
+ * which costs O(k + l).
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class MergeCostEvaluator {
+
+	Calculations calculations = new Calculations();
+	GraphCost graphCost = new GraphCost();
+	int numOfRowPartitions;
+	int numOfColPartitions;
+	int segmentSize;
+	//row major [numOfRowPartitions, numOfColPartitions]
+	double[] numberOfOnes;
+	double[] yLinesPerPartition;
+	double[] xLinesPerPartition;
+	double[] colEntropy;
+	double[] colEdgesCost;
+	double edgesEncodingCost;
+	double rowPartitionsCost;
+	//xLinesSum[t] is the number of lines of the first t column partitions
+	double[] xLinesSum;
+
+	public MergeCostEvaluator(int numOfRowPartitions, int numOfColPartitions, int segmentSize,
+			DenseMatrix64F numberOfOnes, DenseMatrix64F yLinesPerPartition, DenseMatrix64F xLinesPerPartition) {
+		this.numOfRowPartitions = numOfRowPartitions;
+		this.numOfColPartitions = numOfColPartitions;
+		this.segmentSize = segmentSize;
+		this.numberOfOnes = numberOfOnes.getData();
+		this.yLinesPerPartition = yLinesPerPartition.getData();
+		this.xLinesPerPartition = xLinesPerPartition.getData();
+		this.colEntropy = new double[numOfColPartitions];
+		this.colEdgesCost = new double[numOfColPartitions];
+		this.edgesEncodingCost = 0;
+		for(int c = 0; c < numOfColPartitions; c++) {
+			for(int r = 0; r < numOfRowPartitions; r++) {
+				double blockSize = blockSize(r, this.xLinesPerPartition[c]);
+				double ones = this.numberOfOnes[r*numOfColPartitions + c];
+				this.colEntropy[c] += this.graphCost.blockEntropy(ones, blockSize);
+				this.colEdgesCost[c] += this.calculations.encodingBits(blockSize + 1);
+			}
+			this.edgesEncodingCost += this.colEdgesCost[c];
+		}
+		this.rowPartitionsCost = this.graphCost.partitionsEncodingCost(numOfRowPartitions, 
+				this.yLinesPerPartition);
+		this.xLinesSum = new double[numOfColPartitions+1];
+		for(int t = 1; t <= numOfColPartitions; t++) {
+			this.xLinesSum[t] = this.xLinesSum[t-1] + this.xLinesPerPartition[t-1];
+		}
+	}
+
+	/**
+	 * @param colToMergeId1 - zero based id of the partition the other is merged to
+	 * @param colToMergeId2 - zero based id of the partition that is removed, greater than colToMergeId1
+	 * @return the encoding cost of the segment after the merge
+	 */
+	public double mergedCost(int colToMergeId1, int colToMergeId2) {
+		double mergedXLines = this.xLinesPerPartition[colToMergeId1] + this.xLinesPerPartition[colToMergeId2];
+		double mergedEntropy = 0;
+		double mergedEdgesCost = 0;
+		for(int r = 0; r < this.numOfRowPartitions; r++) {
+			int rowOffset = r * this.numOfColPartitions;
+			double blockSize = blockSize(r, mergedXLines);
+			double mergedOnes = this.numberOfOnes[rowOffset + colToMergeId1] +
+					this.numberOfOnes[rowOffset + colToMergeId2];
+			mergedEntropy += this.graphCost.blockEntropy(mergedOnes, blockSize);
+			mergedEdgesCost += this.calculations.encodingBits(blockSize + 1);
+		}
+		double entropy = 0;
+		for(int c = 0; c < this.numOfColPartitions; c++) {
+			if(c == colToMergeId1) {
+				entropy += mergedEntropy;
+			}
+			else if(c != colToMergeId2) {
+				entropy += this.colEntropy[c];
+			}
+		}
+		double graphEncodingCost = Math.ceil(entropy);
+		double edgesEncodingCost = this.edgesEncodingCost - this.colEdgesCost[colToMergeId1] -
+				this.colEdgesCost[colToMergeId2] + mergedEdgesCost;
+		double partitionEncodingCost = this.calculations.logstar(this.numOfRowPartitions) +
+				this.calculations.logstar(this.numOfColPartitions-1) + this.rowPartitionsCost +
+				mergedColPartitionsCost(colToMergeId1, colToMergeId2);
+		return this.calculations.logstar(this.segmentSize) + edgesEncodingCost + partitionEncodingCost +
+				graphEncodingCost;
+	}
+
+	/**
+	 * Encoding cost of the column partitions after the merge. The merged partition
+	 * takes the place of the first one and the partitions after the second one move
+	 * one place to the left.
+	 */
+	private double mergedColPartitionsCost(int colToMergeId1, int colToMergeId2) {
+		double cost = 0;
+		double removedXLines = this.xLinesPerPartition[colToMergeId2];
+		for(int t = 1; t < this.numOfColPartitions; t++) {
+			double colsSum;
+			if(t <= colToMergeId1) {
+				colsSum = this.xLinesSum[t];
+			}
+			else if(t <= colToMergeId2) {
+				colsSum = this.xLinesSum[t] + removedXLines;
+			}
+			else {
+				colsSum = this.xLinesSum[t+1];
+			}
+			cost += this.calculations.encodingBits(colsSum - t + 1);
+		}
+		return cost;
+	}
+
+	private double blockSize(int row, double xLines) {
+		return this.segmentSize * (this.yLinesPerPartition[row] * xLines);
+	}
+}
@@ -0,0 +1,119 @@
+package sgc.cluster;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class searches the pair of column partitions whose merge gives the
+ * smallest encoding cost. The rows i of the pairs (i, j), j > i, are split
+ * between fork/join workers and the best pair of every worker is reduced
+ * keeping the smallest cost and, for equal costs, the smallest (i, j), so the
+ * chosen pair is the same as the one of a serial scan.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class MergeSearchTask extends RecursiveTask<MergeSearchTask.Candidate> {
+
+	private static final long serialVersionUID = 1L;
+
+	//minimum number of pairs a task evaluates before it is split
+	static final int pairsThreshold = 256;
+
+	/**
+	 * A candidate merge, partition ids are zero based
+	 */
+	public static class Candidate {
+		double cost = Double.POSITIVE_INFINITY;
+		int partitionId1 = 0;
+		int partitionId2 = 0;
+
+		/**
+		 * @return true if the pair (i, j) with the input cost should replace this candidate
+		 */
+		boolean isImprovedBy(double cost, int i, int j) {
+			if(cost < this.cost) {
+				return true;
+			}
+			return cost == this.cost && (i < this.partitionId1 || (i == this.partitionId1 && j < this.partitionId2));
+		}
+
+		public double getCost() {
+			return this.cost;
+		}
+
+		public int getPartitionId1() {
+			return this.partitionId1;
+		}
+
+		public int getPartitionId2() {
+			return this.partitionId2;
+		}
+	}
+
+	MergeCostEvaluator mergeCostEvaluator;
+	int numberOfPartitions;
+	int firstRow;
+	int lastRow;
+
+	/**
+	 * Searches the pairs (i, j) with firstRow <= i < lastRow and i < j < numberOfPartitions
+	 */
+	public MergeSearchTask(MergeCostEvaluator mergeCostEvaluator, int numberOfPartitions, int firstRow,
+			int lastRow) {
+		this.mergeCostEvaluator = mergeCostEvaluator;
+		this.numberOfPartitions = numberOfPartitions;
+		this.firstRow = firstRow;
+		this.lastRow = lastRow;
+	}
+
+	@Override
+	protected Candidate compute() {
+		if(this.lastRow - this.firstRow < 2 || numberOfPairs(this.firstRow, this.lastRow) <= pairsThreshold) {
+			return search();
+		}
+		//split so both halves have about the same number of pairs
+		int middleRow = this.firstRow + 1;
+		long halfPairs = numberOfPairs(this.firstRow, this.lastRow) / 2;
+		while(middleRow < this.lastRow - 1 && numberOfPairs(this.firstRow, middleRow) < halfPairs) {
+			middleRow++;
+		}
+		MergeSearchTask left = new MergeSearchTask(this.mergeCostEvaluator, this.numberOfPartitions,
+				this.firstRow, middleRow);
+		MergeSearchTask right = new MergeSearchTask(this.mergeCostEvaluator, this.numberOfPartitions,
+				middleRow, this.lastRow);
+		right.fork();
+		Candidate best = left.compute();
+		Candidate other = right.join();
+		if(best.isImprovedBy(other.cost, other.partitionId1, other.partitionId2)) {
+			best = other;
+		}
+		return best;
+	}
+
+	/**
+	 * Scans the pairs of the task in the calling thread
+	 */
+	public Candidate search() {
+		Candidate best = new Candidate();
+		for(int i = this.firstRow; i < this.lastRow; i++) {
+			for(int j = i+1; j < this.numberOfPartitions; j++) {
+				double mergedCost = this.mergeCostEvaluator.mergedCost(i, j);
+				if(mergedCost < best.cost) {
+					best.cost = mergedCost;
+					best.partitionId1 = i;
+					best.partitionId2 = j;
+				}
+			}
+		}
+		return best;
+	}
+
+	private long numberOfPairs(int firstRow, int lastRow) {
+		long pairs = 0;
+		for(int i = firstRow; i < lastRow; i++) {
+			pairs += this.numberOfPartitions - i - 1;
+		}
+		return pairs;
+	}
+}
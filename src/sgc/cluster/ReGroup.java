@@ -1,11 +1,14 @@
 package sgc.cluster;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
+import org.ejml.EjmlParameters;
 import org.ejml.data.DenseMatrix64F;
 import org.ejml.ops.CommonOps;
 
+import sgc.model.AdjacencyGraph;
+import sgc.model.PartitionAssignment;
 import sgc.utils.Calculations;
 
 /**
@@ -19,73 +22,157 @@ import sgc.utils.Calculations;
  */
 public class ReGroup {
 	
+	//minimum number of nodes a sweep needs to run on the pool
+	static final int parallelThreshold = 256;
+	
 	double cost;
+	ForkJoinPool pool;
+	boolean activeSet = false;
+	double densityTolerance = 0.01;
+	
+	public ReGroup() {
+		this(null);
+	}
+	
+	/**
+	 * @param pool - the pool that scores the nodes of a sweep, null to score them serially
+	 */
+	public ReGroup(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * In active set mode the sweeps after the first one score only the nodes
+	 * that moved, their neighbours and the members of the partitions of the blocks
+	 * whose density changed more than the tolerance. The result is an approximation
+	 * of the full sweeps, since the other nodes could also find a better partition.
+	 */
+	public void setActiveSet(boolean activeSet, double densityTolerance) {
+		this.activeSet = activeSet;
+		this.densityTolerance = densityTolerance;
+	}
 	
 	public void coCluster(int numOfRowPartitions, int numOfColPartitions, int numberOfSrcNodes, int numberOfDstNodes, 
 			int segmentSize, DenseMatrix64F yLinesPerPartition, DenseMatrix64F xLinesPerPartition, 
-			DenseMatrix64F numberOfOnes, DenseMatrix64F graph, Map<Integer, Integer> yNodes, 
-			Map<Integer, Integer> xNodes) {
+			DenseMatrix64F numberOfOnes, AdjacencyGraph graph, PartitionAssignment yNodes, 
+			PartitionAssignment xNodes) {
+		coCluster(new ClusteringState(numberOfOnes, yLinesPerPartition, xLinesPerPartition, yNodes, xNodes), 
+				numberOfSrcNodes, numberOfDstNodes, segmentSize, graph);
+	}
+	
+	/**
+	 * Regroups the nodes of the state in place. Every pair of sweeps is a trial
+	 * of the state, which is rolled back if it does not decrease the cost.
+	 */
+	public void coCluster(ClusteringState state, int numberOfSrcNodes, int numberOfDstNodes, int segmentSize, 
+			AdjacencyGraph graph) {
 		GraphCost graphCost = new GraphCost();
 		Calculations calculations = new Calculations();
+		ClusteringState.Orientation dstSide = state.orientation(false);
+		int numOfRowPartitions = dstSide.getNumOfRowPartitions();
+		int numOfColPartitions = dstSide.getNumOfColPartitions();
 		this.cost = graphCost.segmentEncodingCost(numberOfSrcNodes, numberOfDstNodes, numOfRowPartitions, 
-				numOfColPartitions, segmentSize, numberOfOnes, yLinesPerPartition, xLinesPerPartition);
+				numOfColPartitions, segmentSize, dstSide.getNumberOfOnes(), dstSide.getYLinesPerPartition(), 
+				dstSide.getXLinesPerPartition());
 		double newCost;
-		DenseMatrix64F newYLinesPerPartition = new DenseMatrix64F(yLinesPerPartition);
-		DenseMatrix64F newXLinesPerPartition = new DenseMatrix64F(xLinesPerPartition);
-		DenseMatrix64F newNumberOfOnes = new DenseMatrix64F(numberOfOnes);		
-		Map<Integer, Integer> newYNodes = new HashMap<Integer, Integer>(yNodes);
-		Map<Integer, Integer> newXNodes = new HashMap<Integer, Integer>(xNodes);
 		boolean searchK;
 		boolean noChanges = false;
 		boolean zeroValues = false;
+		//nodes to score in the next sweep of each side, null when all the nodes are scored
+		boolean[] activeYNodes = null;
+		boolean[] activeXNodes = null;
+		if(this.activeSet) {
+			activeYNodes = new boolean[numberOfSrcNodes];
+			activeXNodes = new boolean[numberOfDstNodes];
+			Arrays.fill(activeYNodes, true);
+			Arrays.fill(activeXNodes, true);
+		}
 		while(!noChanges) {
+			state.mark();
 			//Update destination partitions
 			searchK = false;
 			if(!zeroValues) {
-				iterateOverNodes(numOfRowPartitions, segmentSize, newYLinesPerPartition, newXLinesPerPartition, 
-						newNumberOfOnes, graph, newYNodes, newXNodes, searchK);
-				zeroValues = calculations.checkForZeros(newYLinesPerPartition);
-				zeroValues = calculations.checkForZeros(newXLinesPerPartition);
+				ClusteringState.Orientation side = state.orientation(searchK);
+				int[] xLabels = null;
+				double[] densities = null;
+				if(this.activeSet) {
+					xLabels = side.getXNodes().getLabels().clone();
+					densities = blockDensities(segmentSize, side.getNumberOfOnes(), side.getYLinesPerPartition(), 
+							side.getXLinesPerPartition());
+				}
+				iterateOverNodes(numOfRowPartitions, segmentSize, side.getYLinesPerPartition(), 
+						side.getXLinesPerPartition(), side.getNumberOfOnes(), graph, side.getYNodes(), 
+						side.getXNodes(), activeXNodes, searchK);
+				zeroValues = calculations.checkForZeros(side.getYLinesPerPartition());
+				zeroValues = calculations.checkForZeros(side.getXLinesPerPartition());
+				if(this.activeSet) {
+					Arrays.fill(activeXNodes, false);
+					markMovedNodes(xLabels, side.getXNodes(), activeXNodes, activeYNodes, graph, searchK);
+					markChangedBlocks(densities, blockDensities(segmentSize, side.getNumberOfOnes(), 
+							side.getYLinesPerPartition(), side.getXLinesPerPartition()), numOfColPartitions, 
+							side.getYNodes(), side.getXNodes(), activeYNodes, activeXNodes);
+				}
 			}
 			searchK = true;
 			//Update source partitions
 			if(!zeroValues) {
-				CommonOps.transpose(newNumberOfOnes);
-				CommonOps.transpose(newYLinesPerPartition);
-				CommonOps.transpose(newXLinesPerPartition);
-				iterateOverNodes(numOfColPartitions, segmentSize, newXLinesPerPartition, newYLinesPerPartition, 
-						newNumberOfOnes, graph, newXNodes, newYNodes, searchK);
-				CommonOps.transpose(newNumberOfOnes);
-				CommonOps.transpose(newYLinesPerPartition);
-				CommonOps.transpose(newXLinesPerPartition);
-				zeroValues = calculations.checkForZeros(newXLinesPerPartition);
-				zeroValues = calculations.checkForZeros(newYLinesPerPartition);
+				int[] yLabels = null;
+				double[] densities = null;
+				if(this.activeSet) {
+					yLabels = state.getSrcNodes().getLabels().clone();
+					dstSide = state.orientation(false);
+					densities = blockDensities(segmentSize, dstSide.getNumberOfOnes(), 
+							dstSide.getYLinesPerPartition(), dstSide.getXLinesPerPartition());
+				}
+				ClusteringState.Orientation side = state.orientation(searchK);
+				iterateOverNodes(numOfColPartitions, segmentSize, side.getYLinesPerPartition(), 
+						side.getXLinesPerPartition(), side.getNumberOfOnes(), graph, side.getYNodes(), 
+						side.getXNodes(), activeYNodes, searchK);
+				zeroValues = calculations.checkForZeros(side.getYLinesPerPartition());
+				zeroValues = calculations.checkForZeros(side.getXLinesPerPartition());
+				if(this.activeSet) {
+					Arrays.fill(activeYNodes, false);
+					markMovedNodes(yLabels, side.getXNodes(), activeYNodes, activeXNodes, graph, searchK);
+					dstSide = state.orientation(false);
+					markChangedBlocks(densities, blockDensities(segmentSize, dstSide.getNumberOfOnes(), 
+							dstSide.getYLinesPerPartition(), dstSide.getXLinesPerPartition()), numOfColPartitions, 
+							dstSide.getYNodes(), dstSide.getXNodes(), activeYNodes, activeXNodes);
+				}
 			}
 			if(!zeroValues) {
+				dstSide = state.orientation(false);
 				newCost = graphCost.segmentEncodingCost(numberOfSrcNodes, numberOfDstNodes, numOfRowPartitions, 
-						numOfColPartitions, segmentSize, newNumberOfOnes, newYLinesPerPartition, 
-						newXLinesPerPartition);
+						numOfColPartitions, segmentSize, dstSide.getNumberOfOnes(), dstSide.getYLinesPerPartition(), 
+						dstSide.getXLinesPerPartition());
 				if(newCost < this.cost) {
-					numberOfOnes.set(newNumberOfOnes);
-					yLinesPerPartition.set(newYLinesPerPartition);
-					xLinesPerPartition.set(newXLinesPerPartition);
-					yNodes.putAll(newYNodes);
-					xNodes.putAll(newXNodes);
+					state.commit();
 					this.cost = newCost;
 				}
 				else {
+					state.rollback();
 					noChanges = true;
 				}
 			}
 			else {
+				state.rollback();
 				noChanges = true;
 			}
 		}
 	}
 	
 	public void iterateOverNodes(int numOfRowPartitions, int segmentSize, DenseMatrix64F yLinesPerPartition, 
-			DenseMatrix64F xLinesPerPartition, DenseMatrix64F numberOfOnes, DenseMatrix64F graph, 
-			Map<Integer, Integer> yNodes, Map<Integer, Integer> xNodes, boolean searchK) {
+			DenseMatrix64F xLinesPerPartition, DenseMatrix64F numberOfOnes, AdjacencyGraph graph, 
+			PartitionAssignment yNodes, PartitionAssignment xNodes, boolean searchK) {
+		iterateOverNodes(numOfRowPartitions, segmentSize, yLinesPerPartition, xLinesPerPartition, numberOfOnes, 
+				graph, yNodes, xNodes, null, searchK);
+	}
+	
+	/**
+	 * @param activeXNodes - the nodes to score, activeXNodes[nodeId-1], null to score all the nodes
+	 */
+	public void iterateOverNodes(int numOfRowPartitions, int segmentSize, DenseMatrix64F yLinesPerPartition, 
+			DenseMatrix64F xLinesPerPartition, DenseMatrix64F numberOfOnes, AdjacencyGraph graph, 
+			PartitionAssignment yNodes, PartitionAssignment xNodes, boolean[] activeXNodes, boolean searchK) {
 		Calculations calculations = new Calculations();
 		//int numOfColPartitions = xLinesPerPartition.getNumCols();
 		DenseMatrix64F blocksSize = calculations.calcBlocksSize(segmentSize, yLinesPerPartition, xLinesPerPartition);		
@@ -93,27 +180,187 @@ public class ReGroup {
 		DenseMatrix64F pZeros = calculations.calcZeroPropability(pOnes);
 		DenseMatrix64F entropyOnes = calculations.entropyBits(pOnes);
 		DenseMatrix64F entropyZeros = calculations.entropyBits(pZeros);
+		int[] yPartitions = yNodes.getLabels();
+		if(this.pool != null && xNodes.getNumberOfNodes() >= parallelThreshold) {
+			//the entropies are fixed for the whole sweep, so all the nodes can be scored at once
+			int numOfColPartitions = xLinesPerPartition.getNumElements();
+			int[] bestPartitions = new int[xNodes.getNumberOfNodes()];
+			ReGroupTask.Moves moves = this.pool.invoke(new ReGroupTask(this, numOfRowPartitions, numOfColPartitions, 
+					entropyOnes, entropyZeros, yLinesPerPartition, graph, yPartitions, xNodes.getLabels(), 
+					activeXNodes, searchK, bestPartitions, 1, xNodes.getNumberOfNodes()+1));
+			for(int xNodeId = 1; xNodeId <= xNodes.getNumberOfNodes(); xNodeId++) {
+				xNodes.move(xNodeId, bestPartitions[xNodeId-1]);
+			}
+			CommonOps.addEquals(numberOfOnes, DenseMatrix64F.wrap(numOfRowPartitions, numOfColPartitions, 
+					moves.getOnesDelta()));
+			for(int i = 0; i < numOfColPartitions; i++) {
+				xLinesPerPartition.data[i] += moves.getLinesDelta()[i];
+			}
+			return;
+		}
 		int xNodePartitionId = 0;
 		int minEntropyPartitionId = 0;
-		for(Map.Entry<Integer, Integer> xNode : xNodes.entrySet()) {
-			int xNodeId = xNode.getKey();
-			xNodePartitionId = xNode.getValue();
-			DenseMatrix64F currentColOnes = calculations.calcColOnes(xNodeId, numOfRowPartitions, 
-					graph, yNodes, searchK);
-			DenseMatrix64F crossEntropy = calculations.calcCrossEntropy(entropyOnes, entropyZeros, currentColOnes,
-					yLinesPerPartition);
-			double minEntropy = CommonOps.elementMin(crossEntropy);
-			minEntropyPartitionId = calculations.findPartitionId(crossEntropy, minEntropy);
+		BestPartition bestPartition = new BestPartition();
+		int numOfColPartitions = xLinesPerPartition.getNumElements();
+		double[] currentColOnes = new double[numOfRowPartitions];
+		//visit the nodes in ascending id order so every sweep is deterministic
+		for(int xNodeId = 1; xNodeId <= xNodes.getNumberOfNodes(); xNodeId++) {
+			if(activeXNodes != null && !activeXNodes[xNodeId-1]) {
+				continue;
+			}
+			xNodePartitionId = xNodes.getPartition(xNodeId);
+			calculations.calcColOnes(xNodeId, graph, yPartitions, searchK, currentColOnes);
+			findBestPartition(currentColOnes, entropyOnes, entropyZeros, yLinesPerPartition, 
+					xNodePartitionId, bestPartition);
+			minEntropyPartitionId = bestPartition.getPartitionId();
 			if(minEntropyPartitionId != xNodePartitionId) {
-				xNodes.put(xNodeId, minEntropyPartitionId);
-				numberOfOnes.set(calculations.updateMatrix(minEntropyPartitionId, xNodePartitionId, currentColOnes, 
-						numberOfOnes));
-				xLinesPerPartition.set(calculations.updateMatrix(minEntropyPartitionId, xNodePartitionId, 
-						new DenseMatrix64F(new double[][] {{1}}), xLinesPerPartition));				
+				xNodes.move(xNodeId, minEntropyPartitionId);
+				//move the counts of the node from its column of blocks to the new one
+				for(int r = 0; r < numOfRowPartitions; r++) {
+					int rowOffset = r * numOfColPartitions;
+					numberOfOnes.data[rowOffset + xNodePartitionId-1] -= currentColOnes[r];
+					numberOfOnes.data[rowOffset + minEntropyPartitionId-1] += currentColOnes[r];
+				}
+				xLinesPerPartition.data[xNodePartitionId-1] -= 1;
+				xLinesPerPartition.data[minEntropyPartitionId-1] += 1;
 			}
 		}
 	}
 	
+	/**
+	 * Marks as active the nodes that moved in the last sweep and their neighbours
+	 * @param labels - the partitions of the nodes before the sweep
+	 * @param searchK - true if the nodes are source nodes (rows of the graph)
+	 */
+	private void markMovedNodes(int[] labels, PartitionAssignment nodes, boolean[] activeNodes, 
+			boolean[] activeNeighbours, AdjacencyGraph graph, boolean searchK) {
+		for(int nodeId = 1; nodeId <= nodes.getNumberOfNodes(); nodeId++) {
+			if(labels[nodeId-1] != nodes.getPartition(nodeId)) {
+				activeNodes[nodeId-1] = true;
+				int[] neighbours = searchK ? graph.rowNeighbours(nodeId-1) : graph.colNeighbours(nodeId-1);
+				for(int neighbour : neighbours) {
+					activeNeighbours[neighbour] = true;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Marks as active the members of the row and column partitions of the blocks
+	 * whose density changed more than the tolerance
+	 */
+	private void markChangedBlocks(double[] densitiesBefore, double[] densitiesAfter, int numOfColPartitions, 
+			PartitionAssignment yNodes, PartitionAssignment xNodes, boolean[] activeYNodes, 
+			boolean[] activeXNodes) {
+		boolean[] changedRows = new boolean[densitiesBefore.length / numOfColPartitions];
+		boolean[] changedCols = new boolean[numOfColPartitions];
+		for(int i = 0; i < densitiesBefore.length; i++) {
+			if(!(Math.abs(densitiesAfter[i] - densitiesBefore[i]) <= this.densityTolerance)) {
+				changedRows[i / numOfColPartitions] = true;
+				changedCols[i % numOfColPartitions] = true;
+			}
+		}
+		markPartitions(changedRows, yNodes, activeYNodes);
+		markPartitions(changedCols, xNodes, activeXNodes);
+	}
+	
+	private void markPartitions(boolean[] changedPartitions, PartitionAssignment nodes, boolean[] activeNodes) {
+		for(int p = 0; p < changedPartitions.length; p++) {
+			if(changedPartitions[p]) {
+				for(int nodeId : nodes.members(p+1)) {
+					activeNodes[nodeId-1] = true;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the density of ones of every block, row major
+	 */
+	private double[] blockDensities(int segmentSize, DenseMatrix64F numberOfOnes, DenseMatrix64F yLinesPerPartition, 
+			DenseMatrix64F xLinesPerPartition) {
+		int numOfRowPartitions = yLinesPerPartition.getNumElements();
+		int numOfColPartitions = xLinesPerPartition.getNumElements();
+		double[] densities = new double[numOfRowPartitions * numOfColPartitions];
+		for(int r = 0; r < numOfRowPartitions; r++) {
+			for(int c = 0; c < numOfColPartitions; c++) {
+				densities[r*numOfColPartitions + c] = numberOfOnes.get(r*numOfColPartitions + c) / 
+						(segmentSize * yLinesPerPartition.get(r) * xLinesPerPartition.get(c));
+			}
+		}
+		return densities;
+	}
+	
+	/**
+	 * Finds the partition with the minimum cross entropy for a node in one pass over
+	 * the candidate partitions, without building the cross entropy vector. The cross
+	 * entropy of a partition c is sum_r(ones_r*entropyOnes[r,c]) + sum_r(zeros_r*entropyZeros[r,c]),
+	 * summed in the same order as the matrix products did. Partitions with NaN cross
+	 * entropy are skipped, if all of them are NaN the node stays in its partition.
+	 * @param numOfColOnes - the number of ones of the node per row partition
+	 * @param bestPartition - filled with the best partition and the gain of the move
+	 */
+	public void findBestPartition(double[] numOfColOnes, DenseMatrix64F entropyOnes, DenseMatrix64F entropyZeros, 
+			DenseMatrix64F yLinesPerPartition, int currentPartitionId, BestPartition bestPartition) {
+		int numOfRowPartitions = entropyOnes.getNumRows();
+		int numOfColPartitions = entropyOnes.getNumCols();
+		double[] ones = entropyOnes.data;
+		double[] zeros = entropyZeros.data;
+		//CommonOps.multAdd adds every product to the result when there are many columns 
+		//and adds their sum when there are few
+		boolean addEachProduct = numOfColPartitions >= EjmlParameters.MULT_COLUMN_SWITCH;
+		int minEntropyPartitionId = currentPartitionId;
+		double minEntropy = Double.NaN;
+		double currentEntropy = Double.NaN;
+		for(int c = 0; c < numOfColPartitions; c++) {
+			double crossEntropy = 0;
+			for(int r = 0; r < numOfRowPartitions; r++) {
+				crossEntropy += numOfColOnes[r] * ones[r*numOfColPartitions + c];
+			}
+			double zerosEntropy = 0;
+			for(int r = 0; r < numOfRowPartitions; r++) {
+				double numOfZeros = -numOfColOnes[r] + yLinesPerPartition.data[r];
+				if(addEachProduct) {
+					crossEntropy += numOfZeros * zeros[r*numOfColPartitions + c];
+				}
+				else {
+					zerosEntropy += numOfZeros * zeros[r*numOfColPartitions + c];
+				}
+			}
+			if(!addEachProduct) {
+				crossEntropy += zerosEntropy;
+			}
+			if(c == currentPartitionId-1) {
+				currentEntropy = crossEntropy;
+			}
+			if(crossEntropy < minEntropy || (Double.isNaN(minEntropy) && !Double.isNaN(crossEntropy))) {
+				minEntropy = crossEntropy;
+				minEntropyPartitionId = c+1;
+			}
+		}
+		bestPartition.partitionId = minEntropyPartitionId;
+		bestPartition.gain = minEntropyPartitionId == currentPartitionId ? 0 : currentEntropy - minEntropy;
+	}
+	
+	/**
+	 * The result of findBestPartition, reused for all the nodes of a sweep
+	 */
+	public static class BestPartition {
+		int partitionId;
+		double gain;
+		
+		public int getPartitionId() {
+			return this.partitionId;
+		}
+		
+		/**
+		 * @return the decrease of the cross entropy of the node if it moves to the partition
+		 */
+		public double getGain() {
+			return this.gain;
+		}
+	}
+	
 	public double getCost() {
 		return this.cost;
 	}
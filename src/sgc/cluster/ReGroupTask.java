@@ -0,0 +1,147 @@
+package sgc.cluster;
+
+import java.util.concurrent.RecursiveTask;
+
+import org.ejml.data.DenseMatrix64F;
+
+import sgc.model.AdjacencyGraph;
+import sgc.utils.Calculations;
+
+/**
+ * This class finds in parallel the best partition of a range of nodes
+ * during a ReGroup sweep. All the nodes are scored against the block
+ * statistics of the start of the sweep, so the decisions do not depend on
+ * each other. Every task records the moves of its nodes in its own count
+ * deltas, which are summed when the tasks join and applied once by ReGroup.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class ReGroupTask extends RecursiveTask<ReGroupTask.Moves> {
+
+	private static final long serialVersionUID = 1L;
+
+	//minimum number of nodes a task scores before it is split
+	static final int nodesThreshold = 128;
+
+	/**
+	 * The changes of the block counts and of the partition sizes caused by the moves
+	 */
+	public static class Moves {
+		//row major [numOfRowPartitions, numOfColPartitions]
+		double[] onesDelta;
+		double[] linesDelta;
+
+		Moves(int numOfRowPartitions, int numOfColPartitions) {
+			this.onesDelta = new double[numOfRowPartitions * numOfColPartitions];
+			this.linesDelta = new double[numOfColPartitions];
+		}
+
+		void add(Moves moves) {
+			for(int i = 0; i < this.onesDelta.length; i++) {
+				this.onesDelta[i] += moves.onesDelta[i];
+			}
+			for(int i = 0; i < this.linesDelta.length; i++) {
+				this.linesDelta[i] += moves.linesDelta[i];
+			}
+		}
+
+		public double[] getOnesDelta() {
+			return this.onesDelta;
+		}
+
+		public double[] getLinesDelta() {
+			return this.linesDelta;
+		}
+	}
+
+	ReGroup reGroup;
+	int numOfRowPartitions;
+	int numOfColPartitions;
+	DenseMatrix64F entropyOnes;
+	DenseMatrix64F entropyZeros;
+	DenseMatrix64F yLinesPerPartition;
+	AdjacencyGraph graph;
+	int[] yPartitions;
+	int[] xPartitions;
+	//the nodes to score, null to score all the nodes
+	boolean[] activeXNodes;
+	boolean searchK;
+	//the best partition of every node, written by the task that scores the node
+	int[] bestPartitions;
+	int firstNodeId;
+	int lastNodeId;
+
+	/**
+	 * Scores the nodes with firstNodeId <= id < lastNodeId
+	 */
+	public ReGroupTask(ReGroup reGroup, int numOfRowPartitions, int numOfColPartitions,
+			DenseMatrix64F entropyOnes, DenseMatrix64F entropyZeros, DenseMatrix64F yLinesPerPartition,
+			AdjacencyGraph graph, int[] yPartitions, int[] xPartitions, boolean[] activeXNodes, boolean searchK,
+			int[] bestPartitions, int firstNodeId, int lastNodeId) {
+		this.reGroup = reGroup;
+		this.numOfRowPartitions = numOfRowPartitions;
+		this.numOfColPartitions = numOfColPartitions;
+		this.entropyOnes = entropyOnes;
+		this.entropyZeros = entropyZeros;
+		this.yLinesPerPartition = yLinesPerPartition;
+		this.graph = graph;
+		this.yPartitions = yPartitions;
+		this.xPartitions = xPartitions;
+		this.activeXNodes = activeXNodes;
+		this.searchK = searchK;
+		this.bestPartitions = bestPartitions;
+		this.firstNodeId = firstNodeId;
+		this.lastNodeId = lastNodeId;
+	}
+
+	@Override
+	protected Moves compute() {
+		if(this.lastNodeId - this.firstNodeId <= nodesThreshold) {
+			return scoreNodes();
+		}
+		int middleNodeId = (this.firstNodeId + this.lastNodeId) >>> 1;
+		ReGroupTask left = subTask(this.firstNodeId, middleNodeId);
+		ReGroupTask right = subTask(middleNodeId, this.lastNodeId);
+		right.fork();
+		Moves moves = left.compute();
+		moves.add(right.join());
+		return moves;
+	}
+
+	private ReGroupTask subTask(int firstNodeId, int lastNodeId) {
+		return new ReGroupTask(this.reGroup, this.numOfRowPartitions, this.numOfColPartitions, this.entropyOnes,
+				this.entropyZeros, this.yLinesPerPartition, this.graph, this.yPartitions, this.xPartitions,
+				this.activeXNodes, this.searchK, this.bestPartitions, firstNodeId, lastNodeId);
+	}
+
+	private Moves scoreNodes() {
+		Calculations calculations = new Calculations();
+		Moves moves = new Moves(this.numOfRowPartitions, this.numOfColPartitions);
+		ReGroup.BestPartition bestPartition = new ReGroup.BestPartition();
+		double[] currentColOnes = new double[this.numOfRowPartitions];
+		for(int xNodeId = this.firstNodeId; xNodeId < this.lastNodeId; xNodeId++) {
+			int xNodePartitionId = this.xPartitions[xNodeId-1];
+			if(this.activeXNodes != null && !this.activeXNodes[xNodeId-1]) {
+				this.bestPartitions[xNodeId-1] = xNodePartitionId;
+				continue;
+			}
+			calculations.calcColOnes(xNodeId, this.graph, this.yPartitions, this.searchK, currentColOnes);
+			this.reGroup.findBestPartition(currentColOnes, this.entropyOnes, this.entropyZeros,
+					this.yLinesPerPartition, xNodePartitionId, bestPartition);
+			int minEntropyPartitionId = bestPartition.getPartitionId();
+			this.bestPartitions[xNodeId-1] = minEntropyPartitionId;
+			if(minEntropyPartitionId != xNodePartitionId) {
+				for(int r = 0; r < this.numOfRowPartitions; r++) {
+					int rowOffset = r * this.numOfColPartitions;
+					moves.onesDelta[rowOffset + xNodePartitionId-1] -= currentColOnes[r];
+					moves.onesDelta[rowOffset + minEntropyPartitionId-1] += currentColOnes[r];
+				}
+				moves.linesDelta[xNodePartitionId-1] -= 1;
+				moves.linesDelta[minEntropyPartitionId-1] += 1;
+			}
+		}
+		return moves;
+	}
+}
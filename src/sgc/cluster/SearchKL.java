@@ -1,14 +1,15 @@
 
 package sgc.cluster;
 
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.ejml.data.DenseMatrix64F;
 import org.ejml.ops.CommonOps;
 import org.ejml.ops.SpecializedOps;
 import org.ejml.simple.SimpleMatrix;
 
+import sgc.model.AdjacencyGraph;
+import sgc.model.PartitionAssignment;
 import sgc.utils.Calculations;
 
 /**
@@ -25,38 +26,45 @@ public class SearchKL {
 	
 	int numberOfPartitions;
 	double cost;
+	ForkJoinPool pool;
+	
+	public SearchKL() {
+		this(null);
+	}
+	
+	/**
+	 * @param pool - the pool that evaluates the merge candidates, null to evaluate them serially
+	 */
+	public SearchKL(ForkJoinPool pool) {
+		this.pool = pool;
+	}
 		
 	public void merge(int numOfRowPartitions, int numOfColPartitions, int numOfYNodes, int numOfXNodes, 
 			int segmentSize, double cost, DenseMatrix64F numberOfOnes,
 			DenseMatrix64F yLinesPerPartition, DenseMatrix64F xLinesPerPartition, 
-			Map<Integer, Integer> xNodes, boolean searchK) {
+			PartitionAssignment xNodes, boolean searchK) {
 		this.numberOfPartitions = numOfColPartitions;
 		this.cost = cost;
-		GraphCost graphCost = new GraphCost();
 		double minMergedCost = Double.POSITIVE_INFINITY;
 		int mergedNumOfColPartitions = this.numberOfPartitions - 1;
 		int partitionId1 = 0;
 		int partitionId2 = 0;
-		DenseMatrix64F mergedNumberOfOnes = new DenseMatrix64F(numberOfOnes);
-		DenseMatrix64F mergedXLinesPerPartition = new DenseMatrix64F(xLinesPerPartition);
 		//find the partitions that gives the smallest encoding cost by merging them
 		if(mergedNumOfColPartitions > 0) {
-			for(int i = 0; i < this.numberOfPartitions; i++) {
-				for(int j = i+1; j < this.numberOfPartitions; j++) {
-					mergeCols(i, j, mergedNumberOfOnes);
-					mergeCols(i, j, mergedXLinesPerPartition);
-					double mergedCost = graphCost.segmentEncodingCost(numOfYNodes, numOfXNodes, numOfRowPartitions, 
-							mergedNumOfColPartitions, segmentSize, mergedNumberOfOnes,
-							yLinesPerPartition, mergedXLinesPerPartition);
-					if(mergedCost < minMergedCost) {
-						minMergedCost = mergedCost;
-						partitionId1 = i;
-						partitionId2 = j;
-					}
-					mergedNumberOfOnes.setReshape(numberOfOnes);
-					mergedXLinesPerPartition.setReshape(xLinesPerPartition);
-				}
+			MergeCostEvaluator mergeCostEvaluator = new MergeCostEvaluator(numOfRowPartitions, 
+					this.numberOfPartitions, segmentSize, numberOfOnes, yLinesPerPartition, xLinesPerPartition);
+			MergeSearchTask mergeSearch = new MergeSearchTask(mergeCostEvaluator, this.numberOfPartitions, 0, 
+					this.numberOfPartitions);
+			MergeSearchTask.Candidate candidate;
+			if(this.pool != null) {
+				candidate = this.pool.invoke(mergeSearch);
+			}
+			else {
+				candidate = mergeSearch.search();
 			}
+			minMergedCost = candidate.getCost();
+			partitionId1 = candidate.getPartitionId1();
+			partitionId2 = candidate.getPartitionId2();
 			if(minMergedCost < this.cost) {
 				System.out.println("merge");
 				this.numberOfPartitions = mergedNumOfColPartitions;
@@ -64,15 +72,15 @@ public class SearchKL {
 				mergeCols(partitionId1, partitionId2, numberOfOnes);
 				mergeCols(partitionId1, partitionId2, xLinesPerPartition);
 				//add one so array id correspond to partitionid
-				mergeNodesMap(xNodes, partitionId1+1, partitionId2+1); 
+				xNodes.mergePartitions(partitionId1+1, partitionId2+1);
 			}
 		}
 	}
 	
 	public void split(int numOfRowPartitions, int numOfColPartitions, int numberOfYNodes, int numberOfXNodes, 
 			int segmentSize, DenseMatrix64F numberOfOnes,  DenseMatrix64F yLinesPerPartition, 
-			DenseMatrix64F xLinesPerPartition, DenseMatrix64F graph, 
-			Map<Integer, Integer> yNodes, Map<Integer, Integer> xNodes, 
+			DenseMatrix64F xLinesPerPartition, AdjacencyGraph graph, 
+			PartitionAssignment yNodes, PartitionAssignment xNodes, 
 			boolean searchK) {
 		Calculations calculations = new Calculations();
 		this.numberOfPartitions = numOfColPartitions;
@@ -93,7 +101,7 @@ public class SearchKL {
 		int maxEntropyPartitionId = calculations.findPartitionId(averageEntropy, maxAverageEntropy);
 		
 		//find the partition with the maximum entropy
-		List<Integer> maxEntropyPartition = calculations.getPartition(maxEntropyPartitionId, xNodes);
+		int[] maxEntropyPartition = xNodes.members(maxEntropyPartitionId);
 		
 		//Find maxEntropyPartition number of ones 
 		DenseMatrix64F maxEntropyPartOnes = CommonOps.extract(numberOfOnes, 0, numOfRowPartitions,
@@ -110,12 +118,16 @@ public class SearchKL {
 		int numberOfColsAdded = 1;
 		boolean partNumChanged = false;
 		if(splittedNumCols != 0) {
+			int[] yPartitions = yNodes.getLabels();
+			DenseMatrix64F currentColOnes = new DenseMatrix64F(numOfRowPartitions, 1);
 			for(int currentColId : maxEntropyPartition) {
-				DenseMatrix64F currentColOnes = calculations.calcColOnes(currentColId, numOfRowPartitions, 
-						graph, yNodes, searchK);
+				calculations.calcColOnes(currentColId, graph, yPartitions, searchK, currentColOnes.data);
 				CommonOps.sub(maxEntropyPartOnes, currentColOnes, leftoverOnes);
-				DenseMatrix64F newEntropy = calculations.calcBlocksEntropy(maxEntropyPartBlocksSize, leftoverOnes);				
-				double newAverageEntropy = CommonOps.elementSum(newEntropy) / splittedNumCols;
+				double newEntropy = 0;
+				for(int r = 0; r < numOfRowPartitions; r++) {
+					newEntropy += calculations.blockEntropy(leftoverOnes.get(r), maxEntropyPartBlocksSize.get(r));
+				}
+				double newAverageEntropy = newEntropy / splittedNumCols;
 				if(newAverageEntropy < maxAverageEntropy - epsilon) {
 					if(!partNumChanged) {
 						this.numberOfPartitions = this.numberOfPartitions +1;
@@ -127,6 +139,7 @@ public class SearchKL {
 						SimpleMatrix splittedNumOnes = new SimpleMatrix(1, this.numberOfPartitions);
 						splittedNumOnes = splittedNumOnes.combine(0, 0, numOnes);
 						numberOfOnes.setReshape(splittedNumOnes.getMatrix());
+						xNodes.addPartition();
 						partNumChanged = true;
 					}
 					splitLinesPerPartition(this.numberOfPartitions, numberOfColsAdded, 
@@ -135,35 +148,16 @@ public class SearchKL {
 					splitNumberOfOnes(this.numberOfPartitions, maxEntropyPartitionId, 
 							numberOfOnes, leftoverOnes, currentColOnes);
 					//Update values realated to the maxEntropyPartition
-					maxEntropyPartOnes = leftoverOnes.copy();
+					maxEntropyPartOnes.set(leftoverOnes);
 					CommonOps.subEquals(maxEntropyPartBlocksSize, yLinesPerPartition);
 					splittedNumCols = splittedNumCols - 1;
 					maxAverageEntropy = newAverageEntropy;
-					xNodes.put(currentColId, this.numberOfPartitions);					
+					xNodes.move(currentColId, this.numberOfPartitions);
 				}
 			}
 		}
 	}
 	
-	/**
-	 * Merges nodes of the map the correspond to the input id
-	 * @param xNodes
-	 * @param partitionId1
-	 * @param partitionId2
-	 */
-	public void mergeNodesMap(Map<Integer, Integer> xNodes, int partitionId1, int partitionId2) {
-		for(Map.Entry<Integer, Integer> entry : xNodes.entrySet()) {
-			int partitionId = entry.getValue();
-			int nodeId = entry.getKey();
-			if(partitionId == partitionId2) {
-				xNodes.put(nodeId, partitionId1);
-			}
-			else if(partitionId > partitionId2) {
-				xNodes.put(nodeId, partitionId-1);
-			}
-		}
-	}
-	
 	/**
 	 * Rearanges the matrix after the merge of two columns
 	 * @param colToMergeId1
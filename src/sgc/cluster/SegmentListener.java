@@ -0,0 +1,32 @@
+package sgc.cluster;
+
+import sgc.model.GraphSegment;
+
+/**
+ * This interface receives the events of a StreamingGraphScope. The events
+ * are sent by the thread that pushes the snapshots, after the snapshot is
+ * processed. Snapshot ids start from one.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public interface SegmentListener {
+
+	/**
+	 * A snapshot did not fit the current segment and started a new one,
+	 * or the first snapshot arrived
+	 */
+	public void segmentStarted(int snapshotId, GraphSegment segment);
+
+	/**
+	 * The source or destination partitions of the current segment changed
+	 * after a snapshot was added to it
+	 */
+	public void partitionsChanged(int snapshotId, GraphSegment segment);
+
+	/**
+	 * @param latency - the time spent on the snapshot in nanoseconds
+	 */
+	public void snapshotProcessed(int snapshotId, GraphSegment segment, long latency);
+}
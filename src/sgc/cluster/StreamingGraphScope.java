@@ -0,0 +1,265 @@
+package sgc.cluster;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import sgc.model.AdjacencyGraph;
+import sgc.model.DeltaSnapshotStore;
+import sgc.model.DiskSnapshotStore;
+import sgc.model.EdgeDelta;
+import sgc.model.GraphSegment;
+import sgc.model.MemorySnapshotStore;
+import sgc.model.NullSnapshotStore;
+import sgc.model.PartitionAssignment;
+import sgc.model.SegmentCheckpoint;
+import sgc.model.SnapshotStore;
+
+/**
+ * This class runs GraphScope over a stream of snapshots. Snapshots, or the
+ * edges that changed since the previous snapshot, are pushed as they arrive
+ * and the segment boundaries, the partition changes and the time spent on
+ * every snapshot are sent to the listeners. Only the current segment and the
+ * last snapshot are kept. By default the segments do not keep their
+ * snapshots, so the memory does not grow with the length of the stream; the
+ * retention policy can keep them in memory, as edge deltas or in a file per
+ * segment. The state of the stream can be saved to a checkpoint and restored
+ * after a restart.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class StreamingGraphScope {
+
+	GraphScope graphScope;
+	String initialization;
+	String retention = dropRetention;
+	//where the disk retention writes the snapshots of the segments
+	File retentionDirectory;
+	List<SegmentListener> listeners = new ArrayList<SegmentListener>();
+	GraphSegment segment;
+	AdjacencyGraph lastSnapshot;
+	int numberOfSnapshots = 0;
+	int numberOfSegments = 0;
+	long lastLatency = 0;
+	long maxLatency = 0;
+	long totalLatency = 0;
+	
+	public static final int streamKind = 2;
+	public static final String dropRetention = "drop";
+	public static final String memoryRetention = "memory";
+	public static final String deltaRetention = "delta";
+	public static final String diskRetention = "disk";
+
+	/**
+	 * @param initialization - GraphScope.resumeInit or GraphScope.freshStartInit
+	 */
+	public StreamingGraphScope(GraphScope graphScope, String initialization) {
+		this.graphScope = graphScope;
+		this.initialization = initialization;
+	}
+
+	/**
+	 * Sets how the next segments keep their snapshots
+	 * @param retention - dropRetention, memoryRetention, deltaRetention or diskRetention
+	 * @param directory - the directory of the segment files for diskRetention, ignored otherwise
+	 */
+	public void setRetention(String retention, File directory) {
+		if(!retention.equals(dropRetention) && !retention.equals(memoryRetention) && 
+				!retention.equals(deltaRetention) && !retention.equals(diskRetention)) {
+			throw new IllegalArgumentException("Unknown retention "+retention);
+		}
+		if(retention.equals(diskRetention) && directory == null) {
+			throw new IllegalArgumentException("The disk retention needs a directory");
+		}
+		this.retention = retention;
+		this.retentionDirectory = directory;
+	}
+
+	private SnapshotStore newSnapshotStore(int segmentId) throws IOException {
+		if(this.retention.equals(memoryRetention)) {
+			return new MemorySnapshotStore();
+		}
+		if(this.retention.equals(deltaRetention)) {
+			return new DeltaSnapshotStore();
+		}
+		if(this.retention.equals(diskRetention)) {
+			return new DiskSnapshotStore(new File(this.retentionDirectory, "segment-"+segmentId+".snapshots"));
+		}
+		return new NullSnapshotStore();
+	}
+
+	public void addListener(SegmentListener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(SegmentListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * Processes the next snapshot
+	 */
+	public void push(AdjacencyGraph snapshot) throws IOException {
+		process(snapshot, null);
+	}
+
+	/**
+	 * Processes the next snapshot, given by the edges that changed since the
+	 * previous one
+	 */
+	public void push(EdgeDelta delta) throws IOException {
+		if(this.lastSnapshot == null) {
+			throw new IllegalStateException("An edge delta needs a previous snapshot");
+		}
+		process(delta.applyTo(this.lastSnapshot), delta);
+	}
+
+	/**
+	 * Processes the next snapshot, when the edges that changed since the
+	 * previous one are also known
+	 * @param delta - the difference from the previous snapshot, null if unknown
+	 */
+	public void push(AdjacencyGraph snapshot, EdgeDelta delta) throws IOException {
+		process(snapshot, delta);
+	}
+
+	private void process(AdjacencyGraph snapshot, EdgeDelta delta) throws IOException {
+		long startTime = System.nanoTime();
+		int snapshotId = ++this.numberOfSnapshots;
+		if(this.segment == null) {
+			this.segment = new GraphSegment(snapshot);
+			this.graphScope.run(this.segment, this.initialization);
+			this.lastSnapshot = snapshot;
+			startSegment(snapshotId, startTime);
+			return;
+		}
+		PartitionAssignment srcPartitions = this.segment.getSrcPartitions();
+		PartitionAssignment dstPartitions = this.segment.getDstPartitions();
+		long srcVersion = srcPartitions.getVersion();
+		long dstVersion = dstPartitions.getVersion();
+		this.graphScope.run(this.segment, snapshot, delta, this.initialization);
+		this.lastSnapshot = snapshot;
+		if(this.graphScope.newSegment()) {
+			if(this.retention.equals(diskRetention)) {
+				//the snapshots of the finished segment stay in its file
+				this.segment.getSnapshotStore().close();
+			}
+			this.segment = this.graphScope.getNewGraphSegment();
+			startSegment(snapshotId, startTime);
+			return;
+		}
+		if(srcVersion != srcPartitions.getVersion() || dstVersion != dstPartitions.getVersion()) {
+			for(SegmentListener listener : this.listeners) {
+				listener.partitionsChanged(snapshotId, this.segment);
+			}
+		}
+		processed(snapshotId, startTime);
+	}
+
+	private void startSegment(int snapshotId, long startTime) throws IOException {
+		this.segment.setSegmentId(++this.numberOfSegments);
+		this.segment.setSnapshotStore(newSnapshotStore(this.numberOfSegments));
+		for(SegmentListener listener : this.listeners) {
+			listener.segmentStarted(snapshotId, this.segment);
+		}
+		processed(snapshotId, startTime);
+	}
+
+	private void processed(int snapshotId, long startTime) {
+		this.lastLatency = System.nanoTime() - startTime;
+		this.maxLatency = Math.max(this.maxLatency, this.lastLatency);
+		this.totalLatency += this.lastLatency;
+		for(SegmentListener listener : this.listeners) {
+			listener.snapshotProcessed(snapshotId, this.segment, this.lastLatency);
+		}
+	}
+
+	/**
+	 * Saves the current segment, the last snapshot and the counters of the stream.
+	 * The listeners and the GraphScope are not saved.
+	 */
+	public void writeCheckpoint(File file) throws IOException {
+		SegmentCheckpoint.write(file, streamKind, new SegmentCheckpoint.Content() {
+			@Override
+			public void write(DataOutputStream out) throws IOException {
+				out.writeUTF(initialization);
+				out.writeUTF(retention);
+				out.writeUTF(retentionDirectory == null ? "" : retentionDirectory.getPath());
+				out.writeInt(numberOfSnapshots);
+				out.writeInt(numberOfSegments);
+				out.writeLong(lastLatency);
+				out.writeLong(maxLatency);
+				out.writeLong(totalLatency);
+				out.writeBoolean(segment != null);
+				if(segment != null) {
+					SegmentCheckpoint.writeSegment(out, segment);
+					SegmentCheckpoint.writeGraph(out, lastSnapshot);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Restores a stream from a checkpoint, the next pushed snapshot continues it
+	 * @param graphScope - the GraphScope that clusters the next snapshots
+	 */
+	public static StreamingGraphScope readCheckpoint(GraphScope graphScope, File file) throws IOException {
+		ByteBuffer in = SegmentCheckpoint.map(file, streamKind);
+		StreamingGraphScope stream = new StreamingGraphScope(graphScope, readUTF(in));
+		stream.retention = readUTF(in);
+		String directory = readUTF(in);
+		stream.retentionDirectory = directory.isEmpty() ? null : new File(directory);
+		stream.numberOfSnapshots = in.getInt();
+		stream.numberOfSegments = in.getInt();
+		stream.lastLatency = in.getLong();
+		stream.maxLatency = in.getLong();
+		stream.totalLatency = in.getLong();
+		if(in.get() != 0) {
+			stream.segment = SegmentCheckpoint.readSegment(in);
+			stream.lastSnapshot = SegmentCheckpoint.readGraph(in);
+		}
+		SegmentCheckpoint.checkEnd(in);
+		return stream;
+	}
+
+	private static String readUTF(ByteBuffer in) throws IOException {
+		byte[] bytes = new byte[in.getShort() & 0xFFFF];
+		in.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+	
+	public GraphSegment getSegment() {
+		return this.segment;
+	}
+
+	public int getNumberOfSnapshots() {
+		return this.numberOfSnapshots;
+	}
+
+	public int getNumberOfSegments() {
+		return this.numberOfSegments;
+	}
+
+	/**
+	 * @return the time spent on the last snapshot in nanoseconds
+	 */
+	public long getLastLatency() {
+		return this.lastLatency;
+	}
+
+	public long getMaxLatency() {
+		return this.maxLatency;
+	}
+
+	public double getMeanLatency() {
+		if(this.numberOfSnapshots == 0) {
+			return 0;
+		}
+		return (double)this.totalLatency / this.numberOfSnapshots;
+	}
+}
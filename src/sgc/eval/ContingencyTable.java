@@ -0,0 +1,179 @@
+package sgc.eval;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * This class counts the nodes that an actual and a predicted clustering have
+ * in common. The table is built in one pass over the labels of the nodes and
+ * only its non zero cells are kept, so its size is at most the number of
+ * nodes whatever the number of partitions. Labels can be any int, they are
+ * numbered densely from zero in the order they first appear.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class ContingencyTable {
+
+	int numberOfNodes = 0;
+	//dense indices of the actual and of the predicted labels
+	LabelIndex actualIndex = new LabelIndex();
+	LabelIndex predictedIndex = new LabelIndex();
+	//dense indices of the non zero cells, by actual index << 32 | predicted index
+	LabelIndex cellIndex = new LabelIndex();
+	int[] actualSums = new int[16];
+	int[] predictedSums = new int[16];
+	int[] cellCounts = new int[16];
+
+	public ContingencyTable() {
+	}
+
+	/**
+	 * @param actualLabels - the actual partition of every node
+	 * @param predictedLabels - the predicted partition of every node
+	 */
+	public ContingencyTable(int[] actualLabels, int[] predictedLabels) {
+		if(actualLabels.length != predictedLabels.length) {
+			throw new IllegalArgumentException("There are "+actualLabels.length+" actual and "+
+					predictedLabels.length+" predicted labels");
+		}
+		for(int node = 0; node < actualLabels.length; node++) {
+			add(actualLabels[node], predictedLabels[node]);
+		}
+	}
+
+	/**
+	 * Counts the nodes of the actual map that are also in the predicted one
+	 * @param actualPartitions - the actual partition id of every node id
+	 * @param predictedPartitions - the predicted partition id of every node id
+	 */
+	public static ContingencyTable fromMaps(Map<Integer, Integer> actualPartitions,
+			Map<Integer, Integer> predictedPartitions) {
+		ContingencyTable table = new ContingencyTable();
+		for(Map.Entry<Integer, Integer> entry : actualPartitions.entrySet()) {
+			Integer predictedPartition = predictedPartitions.get(entry.getKey());
+			if(predictedPartition != null) {
+				table.add(entry.getValue(), predictedPartition);
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Counts a node with the input labels
+	 */
+	public void add(int actualLabel, int predictedLabel) {
+		int actual = this.actualIndex.indexOf(actualLabel);
+		int predicted = this.predictedIndex.indexOf(predictedLabel);
+		int cell = this.cellIndex.indexOf((long)actual << 32 | predicted);
+		this.actualSums = increment(this.actualSums, actual);
+		this.predictedSums = increment(this.predictedSums, predicted);
+		this.cellCounts = increment(this.cellCounts, cell);
+		this.numberOfNodes++;
+	}
+
+	private static int[] increment(int[] counts, int index) {
+		if(index == counts.length) {
+			counts = Arrays.copyOf(counts, 2 * counts.length);
+		}
+		counts[index]++;
+		return counts;
+	}
+
+	public int getNumberOfNodes() {
+		return this.numberOfNodes;
+	}
+
+	public int getNumberOfActualPartitions() {
+		return this.actualIndex.size;
+	}
+
+	public int getNumberOfPredictedPartitions() {
+		return this.predictedIndex.size;
+	}
+
+	public int getNumberOfCells() {
+		return this.cellIndex.size;
+	}
+
+	/**
+	 * @return the number of nodes of the actual partition with the input dense index
+	 */
+	public int getActualSum(int actual) {
+		return this.actualSums[actual];
+	}
+
+	/**
+	 * @return the number of nodes of the predicted partition with the input dense index
+	 */
+	public int getPredictedSum(int predicted) {
+		return this.predictedSums[predicted];
+	}
+
+	/**
+	 * @return the dense index of the actual partition of a non zero cell
+	 */
+	public int getCellActual(int cell) {
+		return (int)(this.cellIndex.keys[cell] >>> 32);
+	}
+
+	/**
+	 * @return the dense index of the predicted partition of a non zero cell
+	 */
+	public int getCellPredicted(int cell) {
+		return (int)this.cellIndex.keys[cell];
+	}
+
+	/**
+	 * @return the number of nodes of a non zero cell
+	 */
+	public int getCellCount(int cell) {
+		return this.cellCounts[cell];
+	}
+
+	/**
+	 * Numbers long keys densely from zero with an open addressing table
+	 */
+	private static class LabelIndex {
+		//the key of every index
+		long[] keys = new long[16];
+		int size = 0;
+		//index + 1 by hash, zero for an empty slot
+		int[] slots = new int[32];
+
+		int indexOf(long key) {
+			int mask = this.slots.length - 1;
+			int slot = hash(key) & mask;
+			while(this.slots[slot] != 0) {
+				if(this.keys[this.slots[slot]-1] == key) {
+					return this.slots[slot]-1;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if(this.size == this.keys.length) {
+				this.keys = Arrays.copyOf(this.keys, 2 * this.size);
+			}
+			this.keys[this.size] = key;
+			this.slots[slot] = ++this.size;
+			//the table is kept at most half full
+			if(2 * this.size > this.slots.length) {
+				this.slots = new int[2 * this.slots.length];
+				mask = this.slots.length - 1;
+				for(int index = 0; index < this.size; index++) {
+					slot = hash(this.keys[index]) & mask;
+					while(this.slots[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					this.slots[slot] = index+1;
+				}
+			}
+			return this.size-1;
+		}
+
+		private static int hash(long key) {
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int)(hash ^ (hash >>> 32));
+		}
+	}
+}
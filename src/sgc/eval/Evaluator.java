@@ -11,8 +11,8 @@ import java.util.Map;
 
 import org.ejml.data.DenseMatrix64F;
 
-import sgc.utils.Calculations;
 import sgc.utils.DeliciousDataset;
+import sgc.utils.StringDictionary;
 import sgc.utils.WriteToCSV;
 
 /**
@@ -69,7 +69,7 @@ public class Evaluator {
 		DeliciousDataset deliciousDataset = new DeliciousDataset();
 		WriteToCSV writeToCSV = new WriteToCSV(); 
 		System.out.println("Getting tags...");
-		Map<String, Integer> tags = deliciousDataset.getTopTags("data/delicious.2006.summer/dataset/top1500.tags");
+		StringDictionary tags = deliciousDataset.readDictionary("data/delicious.2006.summer/dataset/top1500.tags");
 		System.out.println("Done!");
 		System.out.println("Creating tagGraph...");
 		DenseMatrix64F tagGraph = deliciousDataset.createCoCurrentTagGraph(
@@ -103,17 +103,24 @@ public class Evaluator {
 	public List<Double> calculateFdiff(List<Integer> tagsFromTheSamePartition, DenseMatrix64F tagGraph,
 			Map<String, Integer> tags) 
 			throws NumberFormatException, IOException {
+		return calculateFdiff(tagsFromTheSamePartition, tagGraph, StringDictionary.fromMap(tags));
+	}
+	
+	/**
+	 * Calculate Fdiff distribution, the tag ids are the ids of the dictionary
+	 */
+	public List<Double> calculateFdiff(List<Integer> tagsFromTheSamePartition, DenseMatrix64F tagGraph,
+			StringDictionary tags) throws NumberFormatException, IOException {
 		NormalizedGoogleDistance ngd = new NormalizedGoogleDistance(); 
 		ngd.clearCache();
-		DeliciousDataset deliciousDataset = new DeliciousDataset();
 		List<Double> Fdiff = new ArrayList<Double>();
 		for(int tagId1 : tagsFromTheSamePartition) {
 			for(int tagId2 = 1; tagId2 <= tagGraph.getNumCols(); tagId2++) {
 				if(!tagsFromTheSamePartition.contains(tagId2)) {
 					double value = tagGraph.get(tagId1-1, tagId2-1);
 					if(value == 1) {
-						String term1 = deliciousDataset.getKeyByValue(tags, tagId1);
-						String term2 = deliciousDataset.getKeyByValue(tags, tagId2);
+						String term1 = tags.getString(tagId1);
+						String term2 = tags.getString(tagId2);
 						double ngdDistance = ngd.calculateDistance(term1, term2);
 						System.out.println(term1 + " from " + term2 + " has distance= "+ngdDistance);
 						Fdiff.add(ngdDistance);
@@ -153,16 +160,23 @@ public class Evaluator {
 	 */
 	public List<Double> calculateFsame(List<Integer> tagsFromSamePartition, Map<String, Integer> tags) 
 			throws NumberFormatException, IOException{
+		return calculateFsame(tagsFromSamePartition, StringDictionary.fromMap(tags));
+	}
+	
+	/**
+	 * Calculate Fsame distribution, the tag ids are the ids of the dictionary
+	 */
+	public List<Double> calculateFsame(List<Integer> tagsFromSamePartition, StringDictionary tags) 
+			throws NumberFormatException, IOException {
 		NormalizedGoogleDistance ngd = new NormalizedGoogleDistance(); 
 		ngd.clearCache();
-		DeliciousDataset deliciousDataset = new DeliciousDataset();
 		List<Double> Fsame = new ArrayList<Double>();
 		for(int i = 0; i < tagsFromSamePartition.size(); i++) {
 			for(int j = i+1; j < tagsFromSamePartition.size(); j++) {
 				int tagId1 = tagsFromSamePartition.get(i);
 				int tagId2 = tagsFromSamePartition.get(j);
-				String term1 = deliciousDataset.getKeyByValue(tags, tagId1);
-				String term2 = deliciousDataset.getKeyByValue(tags, tagId2);
+				String term1 = tags.getString(tagId1);
+				String term2 = tags.getString(tagId2);
 				double ngdDistance = ngd.calculateDistance(term1, term2);
 				System.out.println(term1 + " from " + term2 + " has distance= "+ngdDistance);
 				Fsame.add(ngdDistance);
@@ -176,12 +190,22 @@ public class Evaluator {
 	 */
 	public double evaluateWithNMI(Map<Integer, Integer> actualPartitions, Map<Integer, Integer> predictedPartitions) {
 		Metrics metrics = new Metrics();
-		Calculations calculations = new Calculations();
-		Map<Integer, List<Integer>> actualPart = calculations.mapPartitions(actualPartitions);
-		Map<Integer, List<Integer>> predictedPart = calculations.mapPartitions(predictedPartitions);
-		int numberOfNodes = actualPartitions.size();
-		double metric = metrics.normalizedMutualInformation(numberOfNodes, actualPart, predictedPart);
+		ContingencyTable table = ContingencyTable.fromMaps(actualPartitions, predictedPartitions);
+		double metric = metrics.normalizedMutualInformation(table);
 		return metric;
 	}
 	
+	/**
+	 * Evaluate a clustering with NMI, adjusted Rand index, purity and
+	 * variation of information, in this order
+	 */
+	public double[] evaluateWithAllMetrics(Map<Integer, Integer> actualPartitions, 
+			Map<Integer, Integer> predictedPartitions) {
+		Metrics metrics = new Metrics();
+		ContingencyTable table = ContingencyTable.fromMaps(actualPartitions, predictedPartitions);
+		double[] values = {metrics.normalizedMutualInformation(table), metrics.adjustedRandIndex(table),
+				metrics.purity(table), metrics.variationOfInformation(table)};
+		return values;
+	}
+	
 }
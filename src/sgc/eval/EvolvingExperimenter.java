@@ -1,22 +1,27 @@
 package sgc.eval;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.ejml.data.DenseMatrix64F;
 import org.ejml.ops.MatrixIO;
 
 import au.com.bytecode.opencsv.CSVWriter;
 import sgc.cluster.GraphScope;
-import sgc.model.GraphSegment;
+import sgc.model.AdjacencyGraph;
+import sgc.model.BitGraph;
+import sgc.model.SnapshotFile;
+import sgc.model.SparseGraph;
 import sgc.utils.SyntheticDataset;
 import sgc.utils.WriteToCSV;
 
 /**
  * This class simulates the evolving experiments we made to 
- * evaluate the GraphScope algorithm.
+ * evaluate the GraphScope algorithm. The snapshots are loaded, clustered
+ * and written by the stages of a SnapshotPipeline.
  * 
  * @author sbeis
  * @email sot.beis@gmail.com
@@ -25,6 +30,11 @@ import sgc.utils.WriteToCSV;
 public class EvolvingExperimenter {
 	
 	public static String initialization = "resume";
+	public static String representation = "sparse"; //"sparse" or "bits" for bit packed binary snapshots
+	public static int parallelism = 1; //number of threads of the partition search
+	public static int queueCapacity = 2; //number of snapshots waiting between the stages of the pipeline
+	public static String snapshotFormat = "text"; //"text" or "binary" to convert the snapshots once and map them
+	static ForkJoinPool pool; //the pool of the partition search, shared by the experiments
 	
 	/**
 	 * Simulates the experiments with the synthetic dynamic datasets.
@@ -35,83 +45,55 @@ public class EvolvingExperimenter {
 	 */
 	public void synthDatasetExp() throws IOException {
 		int numberOfSnapshots = 10;
-		int srcNodes = 1500;
-		int dstNodes = 1000;
-		String root = "data/data-synth/set1/synth1.t0";
-		SyntheticDataset syntheticReader = new SyntheticDataset();
-		GraphScope graphScope = new GraphScope();
-		Evaluator evaluator = new Evaluator();
-		WriteToCSV writeToCSV = new WriteToCSV();
-		Map<Integer, Integer> predictedSrcPartitions = new HashMap<Integer, Integer>();
-		Map<Integer, Integer> predictedDstPartitions = new HashMap<Integer, Integer>();
-		Map<Integer, Integer> actualSrcPartitions = new HashMap<Integer, Integer>();
-		Map<Integer, Integer> actualDstPartitions = new HashMap<Integer, Integer>();
-		DenseMatrix64F newGraph = new DenseMatrix64F(1500, 1000);
+		final int srcNodes = 1500;
+		final int dstNodes = 1000;
+		final String root = "data/data-synth/set1/synth1.t0";
+		final SyntheticDataset syntheticReader = new SyntheticDataset();
+		final Evaluator evaluator = new Evaluator();
+		final WriteToCSV writeToCSV = new WriteToCSV();
 		
-		CSVWriter writer = new CSVWriter(new FileWriter("data/Experiments/staticExp1.resume.csv"), ',');
+		final CSVWriter writer = new CSVWriter(new FileWriter("data/Experiments/staticExp1.resume.csv"), ',');
 		String[] header = "snapshotID#segmentID#time#cost#srcNMI#dstNMI".split("#");
 		writer.writeNext(header);
 		
-		int snapshotCounter = 1;
-		int segmentCounter = 1;
-		
-		//first snapshot
-		GraphSegment graphSegment = new GraphSegment(
-				syntheticReader.txtToMatrix(root+1+".mtx", srcNodes, dstNodes));
-		graphScope.run(graphSegment, null, initialization);
-		predictedSrcPartitions = graphSegment.getSrcNodes();
-		predictedDstPartitions = graphSegment.getDstNodes();
-		actualSrcPartitions = syntheticReader.nodePartitions(root+1+".flist");
-		actualDstPartitions = syntheticReader.nodePartitions(root+1+".clist");
-		
-		writeToCSV.partitionMapsToCSV(predictedSrcPartitions, "srcPartitions "+1);
-		writeToCSV.partitionMapsToCSV(predictedDstPartitions, "dstPartitions "+1);
-		writeToCSV.linesPerPartitionToCSV(graphSegment.getRowsPerPartition(), "rowsPerPartition "+1);
-		writeToCSV.linesPerPartitionToCSV(graphSegment.getColsPerPartition(), "colsPerPartition "+1);
-		writeToCSV.matrixToCSV(graphSegment.getGraph(), "synth1-snapshot "+1);
-		double segmentCost = graphSegment.getEncodingCost();
-		double estimatedTime = graphScope.getEstimatedTime();
-		double similarity = graphScope.getSimilarity();
-		double srcNMI = evaluator.evaluateWithNMI(actualSrcPartitions, predictedSrcPartitions);
-		double dstNMI = evaluator.evaluateWithNMI(actualDstPartitions, predictedDstPartitions);
-		String[] values1 = {String.valueOf(snapshotCounter), String.valueOf(segmentCounter),
-				String.valueOf(estimatedTime), String.valueOf(segmentCost),
-				String.valueOf(similarity), String.valueOf(srcNMI),
-				String.valueOf(dstNMI)};
-		writer.writeNext(values1);
-		
-		//the other snapshots
-		for(int i = 1; i < numberOfSnapshots; i++) {
-			predictedSrcPartitions.clear();
-			predictedDstPartitions.clear();
-			newGraph = syntheticReader.txtToMatrix(root+(i+1)+".mtx", srcNodes, dstNodes);
-			graphScope.run(graphSegment, newGraph, initialization);
-			if(graphScope.newSegment() == true) {
-				segmentCounter++;
-				graphSegment = graphScope.getNewGraphSegment();
+		SnapshotPipeline pipeline = new SnapshotPipeline(newGraphScope(), initialization, queueCapacity);
+		pipeline.run(numberOfSnapshots, new SnapshotPipeline.SnapshotLoader() {
+			@Override
+			public AdjacencyGraph load(int snapshotId) throws IOException {
+				String path = root+snapshotId+".mtx";
+				if(snapshotFormat.equals("binary")) {
+					File file = new File(path+".sgcs");
+					if(!file.exists()) {
+						SnapshotFile.fromMatrixMarket(path, srcNodes, dstNodes, file);
+					}
+					return SnapshotFile.map(file);
+				}
+				return syntheticReader.mtxToGraph(path, srcNodes, dstNodes, representation);
 			}
-			predictedSrcPartitions.putAll(graphSegment.getSrcNodes());
-			predictedDstPartitions.putAll(graphSegment.getDstNodes());
-			actualSrcPartitions.putAll(syntheticReader.nodePartitions(root+(i+1)+".flist"));
-			actualDstPartitions.putAll(syntheticReader.nodePartitions(root+(i+1)+".clist"));
-
-			writeToCSV.partitionMapsToCSV(predictedSrcPartitions, "srcPartitions "+(i+1));
-			writeToCSV.partitionMapsToCSV(predictedDstPartitions, "dstPartitions "+(i+1));
-			writeToCSV.linesPerPartitionToCSV(graphSegment.getRowsPerPartition(), "rowsPerPartition "+(i+1));
-			writeToCSV.linesPerPartitionToCSV(graphSegment.getColsPerPartition(), "colsPerPartition "+(i+1));
-			writeToCSV.matrixToCSV(graphSegment.getGraph(), "synt1-snapshot "+(i+1));
-			
-			segmentCost = graphSegment.getEncodingCost();
-			estimatedTime = graphScope.getEstimatedTime();
-			similarity = graphScope.getSimilarity();
-			srcNMI = evaluator.evaluateWithNMI(actualSrcPartitions, predictedSrcPartitions);
-			dstNMI = evaluator.evaluateWithNMI(actualDstPartitions, predictedDstPartitions);
-			String[] values = {String.valueOf(snapshotCounter), String.valueOf(segmentCounter),
-					String.valueOf(estimatedTime), String.valueOf(segmentCost),
-					String.valueOf(similarity), String.valueOf(srcNMI),
-					String.valueOf(dstNMI)};
-			writer.writeNext(values);
-		}	
+		}, new SnapshotPipeline.ResultWriter() {
+			@Override
+			public void write(SnapshotPipeline.SnapshotResult result) throws IOException {
+				int snapshotId = result.getSnapshotId();
+				Map<Integer, Integer> predictedSrcPartitions = result.getSrcNodes();
+				Map<Integer, Integer> predictedDstPartitions = result.getDstNodes();
+				Map<Integer, Integer> actualSrcPartitions = syntheticReader.nodePartitions(root+snapshotId+".flist");
+				Map<Integer, Integer> actualDstPartitions = syntheticReader.nodePartitions(root+snapshotId+".clist");
+				
+				writeToCSV.partitionMapsToCSV(predictedSrcPartitions, "srcPartitions "+snapshotId);
+				writeToCSV.partitionMapsToCSV(predictedDstPartitions, "dstPartitions "+snapshotId);
+				writeToCSV.linesPerPartitionToCSV(result.getRowsPerPartition(), "rowsPerPartition "+snapshotId);
+				writeToCSV.linesPerPartitionToCSV(result.getColsPerPartition(), "colsPerPartition "+snapshotId);
+				writeToCSV.matrixToCSV(result.getGraph(), "synth1-snapshot "+snapshotId);
+				
+				double srcNMI = evaluator.evaluateWithNMI(actualSrcPartitions, predictedSrcPartitions);
+				double dstNMI = evaluator.evaluateWithNMI(actualDstPartitions, predictedDstPartitions);
+				String[] values = {String.valueOf(snapshotId), String.valueOf(result.getSegmentId()),
+						String.valueOf(result.getEstimatedTime()), String.valueOf(result.getCost()),
+						String.valueOf(result.getSimilarity()), String.valueOf(srcNMI),
+						String.valueOf(dstNMI)};
+				writer.writeNext(values);
+			}
+		});
 		writer.close();
 	}
 
@@ -124,74 +106,71 @@ public class EvolvingExperimenter {
 	 */
 	public void deliciousExp() throws IOException {
 		int numberOfSnapshots = 12;
-		GraphScope graphScope = new GraphScope();
-		WriteToCSV writeToCSV = new WriteToCSV();
+		final WriteToCSV writeToCSV = new WriteToCSV();
 		
-		CSVWriter writer = new CSVWriter(new FileWriter("data/delicious.2006.summer/statistics"), ',');
+		final CSVWriter writer = new CSVWriter(new FileWriter("data/delicious.2006.summer/statistics"), ',');
 		String[] header = "snapshotID#segmentID#time#cost#similariy".split("#");
 		writer.writeNext(header);
 		
-		int snapshotCounter = 1;
-		int segmentCounter = 1;
-		
-		//first snapshot
-		GraphSegment graphSegment = new GraphSegment(MatrixIO.loadCSV(
-				"data/delicious.2006.summer/input/1delicious.matrix"));
-		
-		//run algorithm
-		System.out.println("GraphScope running for snaphot 1....");
-		graphScope.run(graphSegment, null, initialization);
-		System.out.println("End of running!");
-		
-		//write predicted values
-		System.out.println("Writing results....");
-		writeToCSV.partitionMapsToCSV(graphSegment.getSrcNodes(), 1+".bookmarks");
-		writeToCSV.partitionMapsToCSV(graphSegment.getDstNodes(), 1+".tags");
-		writeToCSV.linesPerPartitionToCSV(graphSegment.getRowsPerPartition(), 1+".rows");
-		writeToCSV.linesPerPartitionToCSV(graphSegment.getColsPerPartition(), 1+".columns");
-		writeToCSV.numberOfOnesToCSV(graphSegment.getNumberOfOnes(), 1+".delicious");
-		writeToCSV.matrixToCSV(graphSegment.getGraph(), 1+".delicious");
-		double segmentCost = graphSegment.getEncodingCost();
-		double estimatedTime = graphScope.getEstimatedTime();
-		double similarity = graphScope.getSimilarity();
-		String[] values1 = {String.valueOf(snapshotCounter), String.valueOf(segmentCounter),
-				String.valueOf(estimatedTime), String.valueOf(segmentCost),
-				String.valueOf(similarity)};
-		writer.writeNext(values1);
-		writer.flush();
-		System.out.println("End of writing");
-		
-		//the rest sequence of graph snapshost
-		for(int i = 1; i < numberOfSnapshots; i++) {
-			System.out.println("GraphScope running for snaphot "+i+"....");			
-			graphScope.run(graphSegment, MatrixIO.loadCSV(
-					"data/delicious.2006.summer/input/"+(i+1)+"delicious.matrix"), initialization);
-			System.out.println("End of running!");
-			if(graphScope.newSegment() == true) {
-				System.out.println("Milestone detected. Create new segment");
-				segmentCounter++;
-				graphSegment = graphScope.getNewGraphSegment();
+		SnapshotPipeline pipeline = new SnapshotPipeline(newGraphScope(), initialization, queueCapacity);
+		pipeline.run(numberOfSnapshots, new SnapshotPipeline.SnapshotLoader() {
+			@Override
+			public AdjacencyGraph load(int snapshotId) throws IOException {
+				String path = "data/delicious.2006.summer/input/"+snapshotId+"delicious.matrix";
+				if(snapshotFormat.equals("binary")) {
+					File file = new File(path+".sgcs");
+					if(!file.exists()) {
+						SnapshotFile.fromCSV(path, file);
+					}
+					return SnapshotFile.map(file);
+				}
+				return toGraph(MatrixIO.loadCSV(path));
 			}
-			
-			//write predicted values
-			System.out.println("Writing results....");
-			writeToCSV.partitionMapsToCSV(graphSegment.getSrcNodes(), (i+1)+".bookmarks");
-			writeToCSV.partitionMapsToCSV(graphSegment.getDstNodes(), (i+1)+".tags");
-			writeToCSV.linesPerPartitionToCSV(graphSegment.getRowsPerPartition(), (i+1)+".rows");
-			writeToCSV.linesPerPartitionToCSV(graphSegment.getColsPerPartition(), (i+1)+".columns");
-			writeToCSV.numberOfOnesToCSV(graphSegment.getNumberOfOnes(), (i+1)+".delicious");
-			writeToCSV.matrixToCSV(graphSegment.getGraph(), (i+1)+".delicious");
-			segmentCost = graphSegment.getEncodingCost();
-			estimatedTime = graphScope.getEstimatedTime();
-			similarity = graphScope.getSimilarity();
-			String[] values = {String.valueOf(snapshotCounter), String.valueOf(segmentCounter),
-					String.valueOf(estimatedTime), String.valueOf(segmentCost),
-					String.valueOf(similarity)};
-			writer.writeNext(values);
-			writer.flush();
-			System.out.println("End of writing");
-			snapshotCounter++;
-		}
+		}, new SnapshotPipeline.ResultWriter() {
+			@Override
+			public void write(SnapshotPipeline.SnapshotResult result) throws IOException {
+				int snapshotId = result.getSnapshotId();
+				System.out.println("Writing results of snapshot "+snapshotId+"....");
+				writeToCSV.partitionMapsToCSV(result.getSrcNodes(), snapshotId+".bookmarks");
+				writeToCSV.partitionMapsToCSV(result.getDstNodes(), snapshotId+".tags");
+				writeToCSV.linesPerPartitionToCSV(result.getRowsPerPartition(), snapshotId+".rows");
+				writeToCSV.linesPerPartitionToCSV(result.getColsPerPartition(), snapshotId+".columns");
+				writeToCSV.numberOfOnesToCSV(result.getNumberOfOnes(), snapshotId+".delicious");
+				writeToCSV.matrixToCSV(result.getGraph(), snapshotId+".delicious");
+				String[] values = {String.valueOf(snapshotId), String.valueOf(result.getSegmentId()),
+						String.valueOf(result.getEstimatedTime()), String.valueOf(result.getCost()),
+						String.valueOf(result.getSimilarity())};
+				writer.writeNext(values);
+				writer.flush();
+			}
+		});
 		writer.close();
 	}
+	
+	/**
+	 * The experiments share one pool, it is replaced only when the
+	 * parallelism changes
+	 */
+	private static synchronized GraphScope newGraphScope() {
+		if(parallelism <= 1) {
+			return new GraphScope();
+		}
+		if(pool == null || pool.getParallelism() != parallelism) {
+			if(pool != null) {
+				pool.shutdown();
+			}
+			pool = new ForkJoinPool(parallelism);
+		}
+		return new GraphScope(pool);
+	}
+	
+	/**
+	 * Converts a snapshot to the graph representation of the experiments
+	 */
+	private AdjacencyGraph toGraph(DenseMatrix64F matrix) {
+		if(representation.equals("bits")) {
+			return new BitGraph(matrix);
+		}
+		return new SparseGraph(matrix);
+	}
 }
@@ -1,93 +1,130 @@
 package sgc.eval;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * This class implements the metrics we use for the evaluation
- * of the predicted clustering. For now we use only the NMI
- * 
+ * of the predicted clustering: NMI, adjusted Rand index, purity and
+ * variation of information. All of them are computed from the non
+ * zero cells of a ContingencyTable, which is built once.
+ *
  * @author sbeis
  * @email sot.beis@gmail.com
  *
  */
-public class Metrics {	
-	
-	public double normalizedMutualInformation(int numberOfNodes, Map<Integer, List<Integer>> actualPartitions, 
+public class Metrics {
+
+	public double normalizedMutualInformation(int numberOfNodes, Map<Integer, List<Integer>> actualPartitions,
 			Map<Integer, List<Integer>> predictedPartitions) {
-		double nmi = 0;
-		double numOfNodes = (double)numberOfNodes;
-		int[][] confusionMatrix = confusionMatrix(actualPartitions, predictedPartitions);
-		int[] confusionMatrixActual = new int[actualPartitions.size()];
-		int[] confusionMatrixPredicted = new int[predictedPartitions.size()];
-		for(int i = 0; i < confusionMatrixActual.length; i++) {
-			int sum = 0;
-			for(int j = 0; j < confusionMatrixPredicted.length; j++) {
-				sum = sum + confusionMatrix[i][j];
+		Map<Integer, Integer> actualNodes = new HashMap<Integer, Integer>();
+		for(Map.Entry<Integer, List<Integer>> entry : actualPartitions.entrySet()) {
+			for(int node : entry.getValue()) {
+				actualNodes.put(node, entry.getKey());
 			}
-			confusionMatrixActual[i] = sum;
 		}
-		for(int j = 0; j < confusionMatrixPredicted.length; j++) {
-			int sum = 0;
-			for(int i = 0; i < confusionMatrixActual.length; i++) {
-				sum = sum + confusionMatrix[i][j];
+		ContingencyTable table = new ContingencyTable();
+		for(Map.Entry<Integer, List<Integer>> entry : predictedPartitions.entrySet()) {
+			for(int node : entry.getValue()) {
+				Integer actualPartition = actualNodes.get(node);
+				if(actualPartition != null) {
+					table.add(actualPartition, entry.getKey());
+				}
 			}
-			confusionMatrixPredicted[j] = sum;
 		}
-		
+		return normalizedMutualInformation(table, numberOfNodes);
+	}
+
+	/**
+	 * @param actualLabels - the actual partition of every node
+	 * @param predictedLabels - the predicted partition of every node
+	 */
+	public double normalizedMutualInformation(int[] actualLabels, int[] predictedLabels) {
+		return normalizedMutualInformation(new ContingencyTable(actualLabels, predictedLabels));
+	}
+
+	public double normalizedMutualInformation(ContingencyTable table) {
+		return normalizedMutualInformation(table, table.getNumberOfNodes());
+	}
+
+	private double normalizedMutualInformation(ContingencyTable table, double numOfNodes) {
 		double term1 = 0;
-		for(int i = 0; i < confusionMatrixActual.length; i++) {
-			for(int j = 0; j < confusionMatrixPredicted.length; j++) {
-				if(confusionMatrix[i][j] > 0) {
-					term1 += -2.0 * confusionMatrix[i][j] * 
-							Math.log((confusionMatrix[i][j] * numOfNodes) / 
-									(confusionMatrixActual[i] * confusionMatrixPredicted[j]));
-				}
-			}
+		for(int cell = 0; cell < table.getNumberOfCells(); cell++) {
+			double count = table.getCellCount(cell);
+			term1 += -2.0 * count * Math.log((count * numOfNodes) /
+					((double)table.getActualSum(table.getCellActual(cell)) *
+							table.getPredictedSum(table.getCellPredicted(cell))));
 		}
 		double term2 = 0;
-		for(int i = 0; i < confusionMatrixActual.length; i++) {
-			term2 += confusionMatrixActual[i] * Math.log(confusionMatrixActual[i] / numOfNodes);
+		for(int i = 0; i < table.getNumberOfActualPartitions(); i++) {
+			term2 += table.getActualSum(i) * Math.log(table.getActualSum(i) / numOfNodes);
 		}
 		double term3 = 0;
-		for(int j = 0; j < confusionMatrixPredicted.length; j++) {
-			term3 += confusionMatrixPredicted[j] * Math.log(confusionMatrixPredicted[j] / numOfNodes);
+		for(int j = 0; j < table.getNumberOfPredictedPartitions(); j++) {
+			term3 += table.getPredictedSum(j) * Math.log(table.getPredictedSum(j) / numOfNodes);
 		}
-		nmi = term1 / (term2 + term3);
-		return nmi;
+		return term1 / (term2 + term3);
 	}
-	
-	private int[][] confusionMatrix(Map<Integer, List<Integer>> actualPartitions, 
-			Map<Integer, List<Integer>> predictedPartitions) {
-		int actualPartitionsSize = actualPartitions.size();
-		int predictedPartitionsSize = predictedPartitions.size();
-		int [][] confusionMatrix = new int[actualPartitionsSize][];
-		int actualPartitionsKeys[] = new int[actualPartitionsSize];
-		int predictedPartitionsKeys[] = new int[predictedPartitionsSize];
-		
-		int actualPartitionsIndex = 0;
-		for(int key : actualPartitions.keySet()) {
-			actualPartitionsKeys[actualPartitionsIndex] = key;
-			actualPartitionsIndex++;
+
+	/**
+	 * The Rand index corrected for chance, 1 for equal clusterings and
+	 * about 0 for independent ones
+	 */
+	public double adjustedRandIndex(ContingencyTable table) {
+		double cellPairs = 0;
+		for(int cell = 0; cell < table.getNumberOfCells(); cell++) {
+			cellPairs += pairs(table.getCellCount(cell));
 		}
-		int predictedPartitionsIndex = 0;
-		for(int key : predictedPartitions.keySet()) {
-			predictedPartitionsKeys[predictedPartitionsIndex] = key;
-			predictedPartitionsIndex++;
+		double actualPairs = 0;
+		for(int i = 0; i < table.getNumberOfActualPartitions(); i++) {
+			actualPairs += pairs(table.getActualSum(i));
 		}
-		
-		for(int i = 0; i < actualPartitionsSize; i++) {
-			confusionMatrix[i] = new int[predictedPartitionsSize];
-			for(int j = 0; j < predictedPartitionsSize; j++) {
-				int commonNodes = 0;
-				for(int node : predictedPartitions.get(predictedPartitionsKeys[j])) {
-					if(actualPartitions.get(actualPartitionsKeys[i]).contains(node)) {
-						commonNodes++;
-					}
-				}
-				confusionMatrix[i][j] = commonNodes;
-			}
+		double predictedPairs = 0;
+		for(int j = 0; j < table.getNumberOfPredictedPartitions(); j++) {
+			predictedPairs += pairs(table.getPredictedSum(j));
+		}
+		double expectedPairs = actualPairs * predictedPairs / pairs(table.getNumberOfNodes());
+		double maximumPairs = (actualPairs + predictedPairs) / 2;
+		if(maximumPairs == expectedPairs) {
+			//both clusterings are a single partition or all singletons
+			return 1;
+		}
+		return (cellPairs - expectedPairs) / (maximumPairs - expectedPairs);
+	}
+
+	private static double pairs(double n) {
+		return n * (n-1) / 2;
+	}
+
+	/**
+	 * The fraction of nodes that are in the most common actual partition
+	 * of their predicted partition
+	 */
+	public double purity(ContingencyTable table) {
+		int[] largestCell = new int[table.getNumberOfPredictedPartitions()];
+		for(int cell = 0; cell < table.getNumberOfCells(); cell++) {
+			int predicted = table.getCellPredicted(cell);
+			largestCell[predicted] = Math.max(largestCell[predicted], table.getCellCount(cell));
+		}
+		double sum = 0;
+		for(int count : largestCell) {
+			sum += count;
+		}
+		return sum / table.getNumberOfNodes();
+	}
+
+	/**
+	 * H(actual|predicted) + H(predicted|actual) in nats, 0 for equal clusterings
+	 */
+	public double variationOfInformation(ContingencyTable table) {
+		double numOfNodes = table.getNumberOfNodes();
+		double vi = 0;
+		for(int cell = 0; cell < table.getNumberOfCells(); cell++) {
+			double count = table.getCellCount(cell);
+			vi -= count / numOfNodes * (Math.log(count / table.getActualSum(table.getCellActual(cell))) +
+					Math.log(count / table.getPredictedSum(table.getCellPredicted(cell))));
 		}
-		return confusionMatrix;
+		return vi;
 	}
 }
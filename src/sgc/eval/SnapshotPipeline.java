@@ -0,0 +1,264 @@
+package sgc.eval;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.ejml.data.DenseMatrix64F;
+
+import sgc.cluster.GraphScope;
+import sgc.cluster.StreamingGraphScope;
+import sgc.model.AdjacencyGraph;
+import sgc.model.EdgeDelta;
+import sgc.model.GraphSegment;
+
+/**
+ * This class runs an evolving experiment as a pipeline of three stages
+ * connected with bounded queues. A loader thread reads the next snapshots
+ * and finds the edges that changed from the previous one, the calling thread
+ * clusters the snapshots and a writer thread writes the results of the
+ * snapshots already clustered. The block counts of a snapshot depend on the
+ * partitions the previous snapshot leaves, so they are not counted by the
+ * loader; the edge delta lets the clustering update them from the counts of
+ * the previous snapshot when the partitions did not change.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class SnapshotPipeline {
+
+	/**
+	 * Reads a snapshot, called by the loader thread in ascending snapshot order
+	 */
+	public interface SnapshotLoader {
+		public AdjacencyGraph load(int snapshotId) throws IOException;
+	}
+
+	/**
+	 * Writes the result of a snapshot, called by the writer thread in ascending snapshot order
+	 */
+	public interface ResultWriter {
+		public void write(SnapshotResult result) throws IOException;
+	}
+
+	/**
+	 * The state of the segment after a snapshot was clustered. The values are
+	 * copies, so they can be written while the next snapshots are clustered.
+	 */
+	public static class SnapshotResult {
+		int snapshotId;
+		int segmentId;
+		double estimatedTime;
+		double cost;
+		double similarity;
+		Map<Integer, Integer> srcNodes;
+		Map<Integer, Integer> dstNodes;
+		DenseMatrix64F rowsPerPartition;
+		DenseMatrix64F colsPerPartition;
+		DenseMatrix64F numberOfOnes;
+		AdjacencyGraph graph;
+
+		private SnapshotResult() {
+		}
+
+		SnapshotResult(int snapshotId, GraphSegment segment, GraphScope graphScope) {
+			this.snapshotId = snapshotId;
+			this.segmentId = segment.getSegmentId();
+			this.estimatedTime = graphScope.getEstimatedTime();
+			this.cost = segment.getEncodingCost();
+			this.similarity = graphScope.getSimilarity();
+			this.srcNodes = segment.getSrcNodes();
+			this.dstNodes = segment.getDstNodes();
+			this.rowsPerPartition = segment.getRowsPerPartition().copy();
+			this.colsPerPartition = segment.getColsPerPartition().copy();
+			this.numberOfOnes = segment.getNumberOfOnes().copy();
+			this.graph = segment.getGraph().copy();
+		}
+
+		public int getSnapshotId() {
+			return this.snapshotId;
+		}
+
+		public int getSegmentId() {
+			return this.segmentId;
+		}
+
+		public double getEstimatedTime() {
+			return this.estimatedTime;
+		}
+
+		public double getCost() {
+			return this.cost;
+		}
+
+		public double getSimilarity() {
+			return this.similarity;
+		}
+
+		public Map<Integer, Integer> getSrcNodes() {
+			return this.srcNodes;
+		}
+
+		public Map<Integer, Integer> getDstNodes() {
+			return this.dstNodes;
+		}
+
+		public DenseMatrix64F getRowsPerPartition() {
+			return this.rowsPerPartition;
+		}
+
+		public DenseMatrix64F getColsPerPartition() {
+			return this.colsPerPartition;
+		}
+
+		public DenseMatrix64F getNumberOfOnes() {
+			return this.numberOfOnes;
+		}
+
+		/**
+		 * @return the aggregated graph of the segment
+		 */
+		public AdjacencyGraph getGraph() {
+			return this.graph;
+		}
+	}
+
+	private static class LoadedSnapshot {
+		int snapshotId;
+		AdjacencyGraph graph;
+		EdgeDelta delta;
+
+		LoadedSnapshot(int snapshotId, AdjacencyGraph graph, EdgeDelta delta) {
+			this.snapshotId = snapshotId;
+			this.graph = graph;
+			this.delta = delta;
+		}
+	}
+
+	//marks the end of a queue
+	private static final LoadedSnapshot endOfSnapshots = new LoadedSnapshot(0, null, null);
+	private static final SnapshotResult endOfResults = new SnapshotResult();
+	//how long a stage waits on a queue before it checks for a failure of the others
+	private static final long pollMillis = 100;
+
+	GraphScope graphScope;
+	String initialization;
+	int queueCapacity;
+	volatile Throwable failure;
+
+	/**
+	 * @param queueCapacity - the number of snapshots that can wait between two stages
+	 */
+	public SnapshotPipeline(GraphScope graphScope, String initialization, int queueCapacity) {
+		this.graphScope = graphScope;
+		this.initialization = initialization;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Runs the experiment for the snapshots 1..numberOfSnapshots and returns
+	 * when all the results are written
+	 */
+	public void run(final int numberOfSnapshots, final SnapshotLoader loader, final ResultWriter writer)
+			throws IOException {
+		final BlockingQueue<LoadedSnapshot> snapshots = new ArrayBlockingQueue<LoadedSnapshot>(this.queueCapacity);
+		final BlockingQueue<SnapshotResult> results = new ArrayBlockingQueue<SnapshotResult>(this.queueCapacity);
+		this.failure = null;
+		Thread loaderThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					AdjacencyGraph previous = null;
+					for(int snapshotId = 1; snapshotId <= numberOfSnapshots; snapshotId++) {
+						AdjacencyGraph graph = loader.load(snapshotId);
+						EdgeDelta delta = previous == null ? null : EdgeDelta.between(previous, graph);
+						snapshots.put(new LoadedSnapshot(snapshotId, graph, delta));
+						previous = graph;
+					}
+					snapshots.put(endOfSnapshots);
+				}
+				catch(InterruptedException ie) {
+					//the pipeline stopped
+				}
+				catch(Throwable t) {
+					fail(t);
+				}
+			}
+		}, "snapshot-loader");
+		Thread writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					SnapshotResult result;
+					while((result = results.take()) != endOfResults) {
+						writer.write(result);
+					}
+				}
+				catch(InterruptedException ie) {
+					//the pipeline stopped
+				}
+				catch(Throwable t) {
+					fail(t);
+				}
+			}
+		}, "result-writer");
+		loaderThread.setDaemon(true);
+		writerThread.setDaemon(true);
+		loaderThread.start();
+		writerThread.start();
+		StreamingGraphScope stream = new StreamingGraphScope(this.graphScope, this.initialization);
+		try {
+			while(this.failure == null) {
+				LoadedSnapshot snapshot = snapshots.poll(pollMillis, TimeUnit.MILLISECONDS);
+				if(snapshot == null) {
+					continue;
+				}
+				SnapshotResult result = endOfResults;
+				if(snapshot != endOfSnapshots) {
+					stream.push(snapshot.graph, snapshot.delta);
+					result = new SnapshotResult(snapshot.snapshotId, stream.getSegment(), this.graphScope);
+				}
+				while(this.failure == null && !results.offer(result, pollMillis, TimeUnit.MILLISECONDS)) {
+					//the writer is behind
+				}
+				if(result == endOfResults) {
+					break;
+				}
+			}
+			if(this.failure == null) {
+				writerThread.join();
+			}
+		}
+		catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			fail(ie);
+		}
+		catch(IOException ioe) {
+			fail(ioe);
+		}
+		catch(RuntimeException re) {
+			fail(re);
+		}
+		finally {
+			loaderThread.interrupt();
+			if(this.failure != null) {
+				writerThread.interrupt();
+			}
+		}
+		if(this.failure != null) {
+			if(this.failure instanceof IOException) {
+				throw (IOException)this.failure;
+			}
+			throw new IOException("The snapshot pipeline failed", this.failure);
+		}
+	}
+
+	private void fail(Throwable t) {
+		if(this.failure == null) {
+			this.failure = t;
+		}
+	}
+}
@@ -65,7 +65,7 @@ public class StaticExperimenter {
 							
 							GraphSegment graphSegment = new GraphSegment(graph);
 							GraphScope graphScope = new GraphScope();
-							graphScope.run(graphSegment, null, INITIALIAZTION);
+							graphScope.run(graphSegment, INITIALIAZTION);
 							Map<Integer, Integer> actualSrcPartitions = benchmarkGenerator.getSrcPartitions();
 							Map<Integer, Integer> actualDstPartitions = benchmarkGenerator.getDstPartitions();
 							Map<Integer, Integer> predictedSrcPartitions = graphSegment.getSrcNodes();
@@ -139,7 +139,7 @@ public class StaticExperimenter {
 							
 							GraphSegment graphSegment = new GraphSegment(graph);
 							GraphScope graphScope = new GraphScope();
-							graphScope.run(graphSegment, null, INITIALIAZTION);
+							graphScope.run(graphSegment, INITIALIAZTION);
 							Map<Integer, Integer> actualSrcPartitions = benchmarkGenerator.getSrcPartitions();
 							Map<Integer, Integer> actualDstPartitions = benchmarkGenerator.getDstPartitions();
 							Map<Integer, Integer> predictedSrcPartitions = graphSegment.getSrcNodes();
@@ -218,7 +218,7 @@ public class StaticExperimenter {
 							
 							GraphSegment graphSegment = new GraphSegment(graph);
 							GraphScope graphScope = new GraphScope();
-							graphScope.run(graphSegment, null, INITIALIAZTION);
+							graphScope.run(graphSegment, INITIALIAZTION);
 							Map<Integer, Integer> actualSrcPartitions = benchmarkGenerator.getSrcPartitions();
 							Map<Integer, Integer> actualDstPartitions = benchmarkGenerator.getDstPartitions();
 							Map<Integer, Integer> predictedSrcPartitions = graphSegment.getSrcNodes();
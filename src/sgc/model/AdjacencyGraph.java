@@ -0,0 +1,79 @@
+package sgc.model;
+
+import org.ejml.data.DenseMatrix64F;
+
+/**
+ * This interface models the adjacency of a (bipartite) graph snapshot
+ * or of an aggregated graph segment. Rows correspond to the source nodes
+ * and columns to the destination nodes. Node and line indices are zero
+ * based, while partition ids follow the rest of the code and start from one.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public interface AdjacencyGraph {
+
+	public int getNumRows();
+
+	public int getNumCols();
+
+	/**
+	 * @return the value of the cell, zero if there is no edge
+	 */
+	public double get(int row, int col);
+
+	/**
+	 * @return the number of non zero cells
+	 */
+	public int getNumNonZeros();
+
+	/**
+	 * @return the sum of the values of all the cells
+	 */
+	public double elementSum();
+
+	/**
+	 * @return the column indices of the non zero cells of a row, in ascending order
+	 */
+	public int[] rowNeighbours(int row);
+
+	/**
+	 * @return the row indices of the non zero cells of a column, in ascending order
+	 */
+	public int[] colNeighbours(int col);
+
+	public AdjacencyGraph copy();
+
+	/**
+	 * Adds the values of the input graph to this graph
+	 */
+	public void addEquals(AdjacencyGraph graph);
+
+	/**
+	 * Subtracts the values of the input graph from this graph
+	 */
+	public void subEquals(AdjacencyGraph graph);
+
+	/**
+	 * Counts the non zero cells of each block
+	 * @param rowPartitions - the partition id of each row
+	 * @param colPartitions - the partition id of each column
+	 * @param numberOfOnes - matrix with dimensions [numOfRowPartitions, numOfColPartitions]
+	 */
+	public void countBlockOnes(int[] rowPartitions, int[] colPartitions, DenseMatrix64F numberOfOnes);
+
+	/**
+	 * Counts the non zero cells of a row per column partition by visiting only its neighbours
+	 * @param numOfRowOnes - array with length numOfColPartitions, overwritten
+	 */
+	public void countRowOnes(int row, int[] colPartitions, double[] numOfRowOnes);
+
+	/**
+	 * Counts the non zero cells of a column per row partition by visiting only its neighbours
+	 * @param numOfColOnes - array with length numOfRowPartitions, overwritten
+	 */
+	public void countColOnes(int col, int[] rowPartitions, double[] numOfColOnes);
+
+	public DenseMatrix64F toDense();
+}
@@ -0,0 +1,398 @@
+package sgc.model;
+
+import java.util.Arrays;
+
+import org.ejml.data.DenseMatrix64F;
+
+/**
+ * Bit packed implementation of the graph adjacency, one bit per cell. Every
+ * row starts at a word boundary so a row is a slice of wordsPerRow longs.
+ * Binary snapshots use a single bit plane. An aggregated segment keeps its
+ * cell values as a binary number spread over several planes (plane p holds
+ * bit p of every cell), so graphs can be added and subtracted exactly.
+ * The non zero cells of all the planes are cached in the support plane which
+ * is used with partition bitmasks to count the ones of each block with
+ * Long.bitCount. A column major copy of the support plane is built on the
+ * first column access and kept until the graph changes.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class BitGraph implements AdjacencyGraph {
+
+	int numRows;
+	int numCols;
+	int wordsPerRow;
+	int wordsPerCol;
+	long[][] planes;
+	long[] support;
+	//column major support, null until first needed
+	volatile long[] colSupport;
+
+	/**
+	 * Creates an empty graph
+	 */
+	public BitGraph(int numRows, int numCols) {
+		this.numRows = numRows;
+		this.numCols = numCols;
+		this.wordsPerRow = (numCols + 63) >>> 6;
+		this.wordsPerCol = (numRows + 63) >>> 6;
+		this.planes = new long[0][];
+		updateSupport();
+	}
+
+	/**
+	 * Packs a matrix with non negative integer values
+	 */
+	public BitGraph(DenseMatrix64F matrix) {
+		this(matrix.getNumRows(), matrix.getNumCols());
+		for(int i = 0; i < this.numRows; i++) {
+			for(int j = 0; j < this.numCols; j++) {
+				double value = matrix.get(i, j);
+				if(value != 0) {
+					setValue(i, j, value);
+				}
+			}
+		}
+		updateSupport();
+	}
+
+	/**
+	 * Creates a binary graph from an edge list. Duplicate edges are stored once.
+	 */
+	public static BitGraph fromEdges(int numRows, int numCols, int[] rows, int[] cols, int numEdges) {
+		BitGraph graph = new BitGraph(numRows, numCols);
+		graph.planes = new long[][] {new long[numRows * graph.wordsPerRow]};
+		long[] plane = graph.planes[0];
+		for(int e = 0; e < numEdges; e++) {
+			plane[rows[e] * graph.wordsPerRow + (cols[e] >>> 6)] |= 1L << cols[e];
+		}
+		graph.updateSupport();
+		return graph;
+	}
+
+	/**
+	 * Wraps bit planes, plane p holds bit p of the value of every cell
+	 * @param planes - row major planes with ((numCols + 63) / 64) words per row
+	 */
+	static BitGraph fromPlanes(int numRows, int numCols, long[][] planes) {
+		BitGraph graph = new BitGraph(numRows, numCols);
+		graph.planes = planes;
+		graph.updateSupport();
+		return graph;
+	}
+
+	private void setValue(int row, int col, double value) {
+		long bits = (long)value;
+		if(bits != value || bits < 0) {
+			throw new IllegalArgumentException("A bit graph stores only non negative integer values");
+		}
+		int numOfPlanes = 64 - Long.numberOfLeadingZeros(bits);
+		while(this.planes.length < numOfPlanes) {
+			this.planes = Arrays.copyOf(this.planes, this.planes.length+1);
+			this.planes[this.planes.length-1] = new long[this.numRows * this.wordsPerRow];
+		}
+		int index = row * this.wordsPerRow + (col >>> 6);
+		long bit = 1L << col;
+		for(int p = 0; p < this.planes.length; p++) {
+			if(((bits >>> p) & 1) != 0) {
+				this.planes[p][index] |= bit;
+			}
+			else {
+				this.planes[p][index] &= ~bit;
+			}
+		}
+	}
+
+	/**
+	 * Recomputes the support plane and drops the empty top planes
+	 */
+	private void updateSupport() {
+		this.colSupport = null;
+		int numOfPlanes = this.planes.length;
+		while(numOfPlanes > 0 && isEmpty(this.planes[numOfPlanes-1])) {
+			numOfPlanes--;
+		}
+		if(numOfPlanes != this.planes.length) {
+			this.planes = Arrays.copyOf(this.planes, numOfPlanes);
+		}
+		if(numOfPlanes == 1) {
+			this.support = this.planes[0];
+			return;
+		}
+		this.support = new long[this.numRows * this.wordsPerRow];
+		for(long[] plane : this.planes) {
+			for(int w = 0; w < plane.length; w++) {
+				this.support[w] |= plane[w];
+			}
+		}
+	}
+
+	/**
+	 * Builds the column major support, if it is not already built
+	 */
+	private long[] buildColumns() {
+		long[] columns = this.colSupport;
+		if(columns != null) {
+			return columns;
+		}
+		synchronized(this) {
+			if(this.colSupport != null) {
+				return this.colSupport;
+			}
+			columns = new long[this.numCols * this.wordsPerCol];
+			for(int i = 0; i < this.numRows; i++) {
+				int offset = i * this.wordsPerRow;
+				for(int w = 0; w < this.wordsPerRow; w++) {
+					long word = this.support[offset+w];
+					while(word != 0) {
+						int col = (w << 6) + Long.numberOfTrailingZeros(word);
+						columns[col * this.wordsPerCol + (i >>> 6)] |= 1L << i;
+						word &= word - 1;
+					}
+				}
+			}
+			this.colSupport = columns;
+			return columns;
+		}
+	}
+	
+	private boolean isEmpty(long[] plane) {
+		for(long word : plane) {
+			if(word != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getNumRows() {
+		return this.numRows;
+	}
+
+	public int getNumCols() {
+		return this.numCols;
+	}
+
+	public int getWordsPerRow() {
+		return this.wordsPerRow;
+	}
+
+	/**
+	 * @return the words with the non zero cells, row by row
+	 */
+	public long[] getSupport() {
+		return this.support;
+	}
+
+	public double get(int row, int col) {
+		int index = row * this.wordsPerRow + (col >>> 6);
+		long value = 0;
+		for(int p = 0; p < this.planes.length; p++) {
+			value |= ((this.planes[p][index] >>> col) & 1) << p;
+		}
+		return value;
+	}
+
+	public int getNumNonZeros() {
+		int nonZeros = 0;
+		for(long word : this.support) {
+			nonZeros += Long.bitCount(word);
+		}
+		return nonZeros;
+	}
+
+	public double elementSum() {
+		double sum = 0;
+		for(int p = 0; p < this.planes.length; p++) {
+			long count = 0;
+			for(long word : this.planes[p]) {
+				count += Long.bitCount(word);
+			}
+			sum += (double)(count << p);
+		}
+		return sum;
+	}
+
+	public int[] rowNeighbours(int row) {
+		int offset = row * this.wordsPerRow;
+		int degree = 0;
+		for(int w = 0; w < this.wordsPerRow; w++) {
+			degree += Long.bitCount(this.support[offset+w]);
+		}
+		int[] neighbours = new int[degree];
+		int index = 0;
+		for(int w = 0; w < this.wordsPerRow; w++) {
+			long word = this.support[offset+w];
+			while(word != 0) {
+				neighbours[index++] = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+			}
+		}
+		return neighbours;
+	}
+
+	public int[] colNeighbours(int col) {
+		long[] columns = buildColumns();
+		int offset = col * this.wordsPerCol;
+		int degree = 0;
+		for(int w = 0; w < this.wordsPerCol; w++) {
+			degree += Long.bitCount(columns[offset+w]);
+		}
+		int[] neighbours = new int[degree];
+		int index = 0;
+		for(int w = 0; w < this.wordsPerCol; w++) {
+			long word = columns[offset+w];
+			while(word != 0) {
+				neighbours[index++] = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+			}
+		}
+		return neighbours;
+	}
+
+	public BitGraph copy() {
+		BitGraph graph = new BitGraph(this.numRows, this.numCols);
+		graph.planes = new long[this.planes.length][];
+		for(int p = 0; p < this.planes.length; p++) {
+			graph.planes[p] = this.planes[p].clone();
+		}
+		graph.updateSupport();
+		return graph;
+	}
+
+	/**
+	 * Adds the planes of the input graph with a ripple carry over the planes
+	 */
+	public void addEquals(AdjacencyGraph graph) {
+		BitGraph bitGraph = toBitGraph(graph);
+		int numOfPlanes = Math.max(this.planes.length, bitGraph.planes.length) + 1;
+		long[][] newPlanes = new long[numOfPlanes][this.support.length];
+		for(int w = 0; w < this.support.length; w++) {
+			long carry = 0;
+			for(int p = 0; p < numOfPlanes; p++) {
+				long a = word(this.planes, p, w);
+				long b = word(bitGraph.planes, p, w);
+				newPlanes[p][w] = a ^ b ^ carry;
+				carry = (a & b) | (carry & (a ^ b));
+			}
+		}
+		this.planes = newPlanes;
+		updateSupport();
+	}
+
+	/**
+	 * Subtracts the planes of the input graph with a ripple borrow over the planes
+	 */
+	public void subEquals(AdjacencyGraph graph) {
+		BitGraph bitGraph = toBitGraph(graph);
+		int numOfPlanes = Math.max(this.planes.length, bitGraph.planes.length);
+		long[][] newPlanes = new long[numOfPlanes][this.support.length];
+		for(int w = 0; w < this.support.length; w++) {
+			long borrow = 0;
+			for(int p = 0; p < numOfPlanes; p++) {
+				long a = word(this.planes, p, w);
+				long b = word(bitGraph.planes, p, w);
+				newPlanes[p][w] = a ^ b ^ borrow;
+				borrow = (~a & b) | (~(a ^ b) & borrow);
+			}
+			if(borrow != 0) {
+				throw new IllegalArgumentException("A bit graph stores only non negative integer values");
+			}
+		}
+		this.planes = newPlanes;
+		updateSupport();
+	}
+
+	private long word(long[][] planes, int p, int w) {
+		if(p < planes.length) {
+			return planes[p][w];
+		}
+		return 0;
+	}
+
+	private BitGraph toBitGraph(AdjacencyGraph graph) {
+		if(graph.getNumRows() != this.numRows || graph.getNumCols() != this.numCols) {
+			throw new IllegalArgumentException("Graphs must have the same shape");
+		}
+		if(graph instanceof BitGraph) {
+			return (BitGraph)graph;
+		}
+		BitGraph bitGraph = new BitGraph(this.numRows, this.numCols);
+		for(int i = 0; i < this.numRows; i++) {
+			for(int col : graph.rowNeighbours(i)) {
+				bitGraph.setValue(i, col, graph.get(i, col));
+			}
+		}
+		bitGraph.updateSupport();
+		return bitGraph;
+	}
+
+	/**
+	 * Builds one bitmask per partition with the same layout as a row
+	 * @param partitions - the partition id of each column
+	 */
+	public long[][] partitionMasks(int[] partitions, int numOfPartitions) {
+		long[][] masks = new long[numOfPartitions][this.wordsPerRow];
+		for(int j = 0; j < this.numCols; j++) {
+			masks[partitions[j]-1][j >>> 6] |= 1L << j;
+		}
+		return masks;
+	}
+
+	public void countBlockOnes(int[] rowPartitions, int[] colPartitions, DenseMatrix64F numberOfOnes) {
+		numberOfOnes.zero();
+		int numOfColPartitions = numberOfOnes.getNumCols();
+		long[][] masks = partitionMasks(colPartitions, numOfColPartitions);
+		for(int i = 0; i < this.numRows; i++) {
+			int offset = i * this.wordsPerRow;
+			int rowOffset = (rowPartitions[i]-1) * numOfColPartitions;
+			for(int q = 0; q < numOfColPartitions; q++) {
+				long[] mask = masks[q];
+				int count = 0;
+				for(int w = 0; w < this.wordsPerRow; w++) {
+					count += Long.bitCount(this.support[offset+w] & mask[w]);
+				}
+				numberOfOnes.data[rowOffset + q] += count;
+			}
+		}
+	}
+
+	public void countRowOnes(int row, int[] colPartitions, double[] numOfRowOnes) {
+		Arrays.fill(numOfRowOnes, 0);
+		int offset = row * this.wordsPerRow;
+		for(int w = 0; w < this.wordsPerRow; w++) {
+			long word = this.support[offset+w];
+			while(word != 0) {
+				int col = (w << 6) + Long.numberOfTrailingZeros(word);
+				numOfRowOnes[colPartitions[col]-1] += 1;
+				word &= word - 1;
+			}
+		}
+	}
+
+	public void countColOnes(int col, int[] rowPartitions, double[] numOfColOnes) {
+		long[] columns = buildColumns();
+		Arrays.fill(numOfColOnes, 0);
+		int offset = col * this.wordsPerCol;
+		for(int w = 0; w < this.wordsPerCol; w++) {
+			long word = columns[offset+w];
+			while(word != 0) {
+				int row = (w << 6) + Long.numberOfTrailingZeros(word);
+				numOfColOnes[rowPartitions[row]-1] += 1;
+				word &= word - 1;
+			}
+		}
+	}
+
+	public DenseMatrix64F toDense() {
+		DenseMatrix64F matrix = new DenseMatrix64F(this.numRows, this.numCols);
+		for(int i = 0; i < this.numRows; i++) {
+			for(int col : rowNeighbours(i)) {
+				matrix.set(i, col, get(i, col));
+			}
+		}
+		return matrix;
+	}
+}
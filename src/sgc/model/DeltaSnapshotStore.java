@@ -0,0 +1,116 @@
+package sgc.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the edges that changed between every two consecutive snapshots,
+ * the first delta holds all the edges of the first snapshot. Every few
+ * snapshots a whole one is kept as a keyframe, and a snapshot is rebuilt by
+ * applying the deltas after the keyframe before it, or after the snapshot
+ * read last when it is closer, so reading the snapshots in order applies
+ * every delta once. The store suits segments whose snapshots differ in few
+ * edges. Only the non zero cells are kept, the snapshots are read back as
+ * binary graphs and must not be changed.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class DeltaSnapshotStore implements SnapshotStore {
+
+	int keyframeInterval;
+	List<EdgeDelta> deltas = new ArrayList<EdgeDelta>();
+	//keyframes.get(k) is the snapshot k * keyframeInterval
+	List<AdjacencyGraph> keyframes = new ArrayList<AdjacencyGraph>();
+	//a copy of the last added snapshot, needed to find the next delta
+	AdjacencyGraph lastSnapshot;
+	//the snapshot read last and its index, -1 if none
+	AdjacencyGraph cursor;
+	int cursorIndex = -1;
+
+	public DeltaSnapshotStore() {
+		this(16);
+	}
+
+	/**
+	 * @param keyframeInterval - the number of snapshots between two kept whole
+	 */
+	public DeltaSnapshotStore(int keyframeInterval) {
+		if(keyframeInterval < 1) {
+			throw new IllegalArgumentException("Keyframe interval "+keyframeInterval+" is not positive");
+		}
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	public synchronized void add(AdjacencyGraph snapshot) {
+		if(this.lastSnapshot == null) {
+			this.lastSnapshot = new SparseGraph(snapshot.getNumRows(), snapshot.getNumCols());
+		}
+		//the added graph may change later, e.g. when it becomes the aggregated graph of a segment
+		append(EdgeDelta.between(this.lastSnapshot, snapshot), snapshot.copy());
+	}
+
+	/**
+	 * Adds the snapshot that follows from the last one and the delta, as
+	 * when the store is read from a checkpoint
+	 * @param numRows - the rows of the snapshots, used by the first delta
+	 * @param numCols - the columns of the snapshots, used by the first delta
+	 */
+	public synchronized void addDelta(EdgeDelta delta, int numRows, int numCols) {
+		if(this.lastSnapshot == null) {
+			this.lastSnapshot = new SparseGraph(numRows, numCols);
+		}
+		append(delta, delta.applyTo(this.lastSnapshot));
+	}
+
+	private void append(EdgeDelta delta, AdjacencyGraph snapshot) {
+		if(this.deltas.size() % this.keyframeInterval == 0) {
+			this.keyframes.add(snapshot);
+		}
+		this.deltas.add(delta);
+		this.lastSnapshot = snapshot;
+	}
+
+	public int size() {
+		return this.deltas.size();
+	}
+
+	/**
+	 * @param index - zero based, the delta from snapshot index-1 to snapshot index
+	 */
+	public EdgeDelta getDelta(int index) {
+		return this.deltas.get(index);
+	}
+
+	public int getKeyframeInterval() {
+		return this.keyframeInterval;
+	}
+
+	public synchronized AdjacencyGraph get(int index) {
+		if(index < 0 || index >= this.deltas.size()) {
+			throw new IndexOutOfBoundsException("Snapshot "+index+" of "+this.deltas.size());
+		}
+		int keyframe = index / this.keyframeInterval;
+		int i = keyframe * this.keyframeInterval;
+		AdjacencyGraph snapshot = this.keyframes.get(keyframe);
+		if(this.cursorIndex >= i && this.cursorIndex <= index) {
+			i = this.cursorIndex;
+			snapshot = this.cursor;
+		}
+		while(i < index) {
+			snapshot = this.deltas.get(++i).applyTo(snapshot);
+		}
+		this.cursor = snapshot;
+		this.cursorIndex = index;
+		return snapshot;
+	}
+
+	public synchronized void close() {
+		this.deltas.clear();
+		this.keyframes.clear();
+		this.lastSnapshot = null;
+		this.cursor = null;
+		this.cursorIndex = -1;
+	}
+}
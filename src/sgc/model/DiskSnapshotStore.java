@@ -0,0 +1,137 @@
+package sgc.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Spills the snapshots to an append-only file. Every record is a graph in
+ * the format of SegmentCheckpoint, only the offsets of the records are kept
+ * in memory. A snapshot is read back from a memory mapped region of the file.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class DiskSnapshotStore implements SnapshotStore {
+
+	File file;
+	RandomAccessFile randomAccessFile;
+	FileChannel channel;
+	//offsets[i] is the start of record i, offsets[size] the end of the last one
+	long[] offsets = new long[16];
+	int size = 0;
+	//true until the first snapshot is added to a store opened from a checkpoint
+	boolean readOnly = false;
+
+	/**
+	 * Creates an empty store, an existing file is truncated
+	 */
+	public DiskSnapshotStore(File file) throws IOException {
+		this.file = file;
+		this.randomAccessFile = new RandomAccessFile(file, "rw");
+		this.channel = this.randomAccessFile.getChannel();
+		this.channel.truncate(0);
+	}
+
+	/**
+	 * Opens a store written before with the records up to the input length of
+	 * the file. The file is only read until a snapshot is added, then the
+	 * records appended after the length are dropped.
+	 */
+	public DiskSnapshotStore(File file, long length) throws IOException {
+		this.file = file;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = this.randomAccessFile.getChannel();
+		this.readOnly = true;
+		if(this.channel.size() < length) {
+			this.randomAccessFile.close();
+			throw new IOException(file+" is shorter than "+length+" bytes");
+		}
+		ByteBuffer recordLength = ByteBuffer.allocate(4);
+		long offset = 0;
+		while(offset < length) {
+			recordLength.clear();
+			this.channel.read(recordLength, offset);
+			recordLength.flip();
+			offset = offset + 4 + recordLength.getInt();
+			addOffset(offset);
+		}
+		if(offset != length) {
+			this.randomAccessFile.close();
+			throw new IOException(file+" has no record boundary at "+length);
+		}
+	}
+
+	private void addOffset(long offset) {
+		if(this.size+1 == this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, 2 * this.offsets.length);
+		}
+		this.offsets[++this.size] = offset;
+	}
+
+	public void add(AdjacencyGraph snapshot) throws IOException {
+		if(this.readOnly) {
+			resume();
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		SegmentCheckpoint.writeGraph(out, snapshot);
+		out.flush();
+		ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+		record.putInt(0, record.remaining()-4);
+		long offset = this.offsets[this.size];
+		while(record.hasRemaining()) {
+			offset += this.channel.write(record, offset);
+		}
+		addOffset(offset);
+	}
+
+	/**
+	 * Reopens the file for writing and drops the records after the last one of the store
+	 */
+	private void resume() throws IOException {
+		this.randomAccessFile.close();
+		this.randomAccessFile = new RandomAccessFile(this.file, "rw");
+		this.channel = this.randomAccessFile.getChannel();
+		this.channel.truncate(this.offsets[this.size]);
+		this.readOnly = false;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public AdjacencyGraph get(int index) throws IOException {
+		if(index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Snapshot "+index+" of "+this.size);
+		}
+		long start = this.offsets[index] + 4;
+		ByteBuffer in = this.channel.map(FileChannel.MapMode.READ_ONLY, start, this.offsets[index+1] - start);
+		return SegmentCheckpoint.readGraph(in);
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @return the length of the records written so far
+	 */
+	public long getLength() {
+		return this.offsets[this.size];
+	}
+
+	/**
+	 * Closes the file, the records stay on disk
+	 */
+	public void close() throws IOException {
+		this.randomAccessFile.close();
+	}
+}
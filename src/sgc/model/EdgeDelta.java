@@ -0,0 +1,195 @@
+package sgc.model;
+
+import java.util.Arrays;
+
+import org.ejml.data.DenseMatrix64F;
+
+/**
+ * This class models the difference between two consecutive binary graph
+ * snapshots as the edges that were inserted and the edges that were deleted.
+ * Row and column indices are zero based. The block counts of the new snapshot
+ * follow from the counts of the previous one by visiting only the changed edges.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class EdgeDelta {
+
+	int[] insertedRows;
+	int[] insertedCols;
+	int numberOfInsertions;
+	int[] deletedRows;
+	int[] deletedCols;
+	int numberOfDeletions;
+
+	/**
+	 * An inserted edge must not be in the previous snapshot and a deleted
+	 * edge must be in it
+	 */
+	public EdgeDelta(int[] insertedRows, int[] insertedCols, int numberOfInsertions, int[] deletedRows,
+			int[] deletedCols, int numberOfDeletions) {
+		this.insertedRows = insertedRows;
+		this.insertedCols = insertedCols;
+		this.numberOfInsertions = numberOfInsertions;
+		this.deletedRows = deletedRows;
+		this.deletedCols = deletedCols;
+		this.numberOfDeletions = numberOfDeletions;
+	}
+
+	/**
+	 * Finds the delta of two snapshots by merging the neighbours of every row
+	 */
+	public static EdgeDelta between(AdjacencyGraph previous, AdjacencyGraph next) {
+		int[] insertedRows = new int[16];
+		int[] insertedCols = new int[16];
+		int[] deletedRows = new int[16];
+		int[] deletedCols = new int[16];
+		int numberOfInsertions = 0;
+		int numberOfDeletions = 0;
+		for(int row = 0; row < previous.getNumRows(); row++) {
+			int[] before = previous.rowNeighbours(row);
+			int[] after = next.rowNeighbours(row);
+			int i = 0;
+			int j = 0;
+			while(i < before.length || j < after.length) {
+				if(j == after.length || (i < before.length && before[i] < after[j])) {
+					if(numberOfDeletions == deletedRows.length) {
+						deletedRows = Arrays.copyOf(deletedRows, 2 * numberOfDeletions);
+						deletedCols = Arrays.copyOf(deletedCols, 2 * numberOfDeletions);
+					}
+					deletedRows[numberOfDeletions] = row;
+					deletedCols[numberOfDeletions++] = before[i++];
+				}
+				else if(i == before.length || after[j] < before[i]) {
+					if(numberOfInsertions == insertedRows.length) {
+						insertedRows = Arrays.copyOf(insertedRows, 2 * numberOfInsertions);
+						insertedCols = Arrays.copyOf(insertedCols, 2 * numberOfInsertions);
+					}
+					insertedRows[numberOfInsertions] = row;
+					insertedCols[numberOfInsertions++] = after[j++];
+				}
+				else {
+					i++;
+					j++;
+				}
+			}
+		}
+		return new EdgeDelta(Arrays.copyOf(insertedRows, numberOfInsertions), 
+				Arrays.copyOf(insertedCols, numberOfInsertions), numberOfInsertions, 
+				Arrays.copyOf(deletedRows, numberOfDeletions), Arrays.copyOf(deletedCols, numberOfDeletions), 
+				numberOfDeletions);
+	}
+
+	public int getNumberOfInsertions() {
+		return this.numberOfInsertions;
+	}
+
+	public int getNumberOfDeletions() {
+		return this.numberOfDeletions;
+	}
+
+	/**
+	 * Adds the change of the number of ones of every block to the input counts
+	 * @param rowPartitions - the partition id of each row
+	 * @param colPartitions - the partition id of each column
+	 * @param numberOfOnes - matrix with dimensions [numOfRowPartitions, numOfColPartitions]
+	 */
+	public void addBlockOnes(int[] rowPartitions, int[] colPartitions, DenseMatrix64F numberOfOnes) {
+		int numOfColPartitions = numberOfOnes.getNumCols();
+		for(int e = 0; e < this.numberOfInsertions; e++) {
+			numberOfOnes.data[(rowPartitions[this.insertedRows[e]]-1) * numOfColPartitions +
+					colPartitions[this.insertedCols[e]]-1] += 1;
+		}
+		for(int e = 0; e < this.numberOfDeletions; e++) {
+			numberOfOnes.data[(rowPartitions[this.deletedRows[e]]-1) * numOfColPartitions +
+					colPartitions[this.deletedCols[e]]-1] -= 1;
+		}
+	}
+
+	/**
+	 * Builds the new snapshot from the previous one and the delta. The rows
+	 * without a change are copied in bulk and every changed row is merged with
+	 * its sorted insertions and deletions, so no row is sorted again. The new
+	 * snapshot still copies the edges of the previous one, it is the block
+	 * counts of addBlockOnes that cost the size of the delta alone.
+	 * @return the new snapshot
+	 */
+	public SparseGraph applyTo(AdjacencyGraph previous) {
+		SparseGraph graph = SparseGraph.toSparse(previous);
+		int numRows = graph.numRows;
+		int numCols = graph.numCols;
+		long[] inserted = cells(this.insertedRows, this.insertedCols, this.numberOfInsertions, numCols);
+		long[] deleted = cells(this.deletedRows, this.deletedCols, this.numberOfDeletions, numCols);
+		int[] rowPointers = new int[numRows+1];
+		int[] colIndices = new int[graph.getNumNonZeros() + this.numberOfInsertions];
+		int index = 0;
+		int i = 0;
+		int d = 0;
+		int row = 0;
+		while(row < numRows) {
+			int changedRow = numRows;
+			if(i < inserted.length) {
+				changedRow = (int)(inserted[i] / numCols);
+			}
+			if(d < deleted.length) {
+				changedRow = Math.min(changedRow, (int)(deleted[d] / numCols));
+			}
+			//copies the rows before the next changed one at once
+			int start = graph.rowPointers[row];
+			int end = graph.rowPointers[changedRow];
+			System.arraycopy(graph.colIndices, start, colIndices, index, end - start);
+			for(int r = row; r < changedRow; r++) {
+				rowPointers[r+1] = graph.rowPointers[r+1] - start + index;
+			}
+			index += end - start;
+			if(changedRow == numRows) {
+				break;
+			}
+			long rowStart = (long)changedRow * numCols;
+			long rowEnd = rowStart + numCols;
+			for(int e = graph.rowPointers[changedRow]; e < graph.rowPointers[changedRow+1]; e++) {
+				long cell = rowStart + graph.colIndices[e];
+				while(i < inserted.length && inserted[i] < cell) {
+					colIndices[index++] = (int)(inserted[i++] - rowStart);
+				}
+				if(i < inserted.length && inserted[i] == cell) {
+					i++;
+				}
+				while(d < deleted.length && deleted[d] < cell) {
+					d++;
+				}
+				if(d < deleted.length && deleted[d] == cell) {
+					d++;
+				}
+				else {
+					colIndices[index++] = graph.colIndices[e];
+				}
+			}
+			while(i < inserted.length && inserted[i] < rowEnd) {
+				colIndices[index++] = (int)(inserted[i++] - rowStart);
+			}
+			while(d < deleted.length && deleted[d] < rowEnd) {
+				d++;
+			}
+			rowPointers[changedRow+1] = index;
+			row = changedRow+1;
+		}
+		double[] values = new double[index];
+		Arrays.fill(values, 1);
+		return new SparseGraph(numRows, numCols, rowPointers, 
+				index == colIndices.length ? colIndices : Arrays.copyOf(colIndices, index), values);
+	}
+
+	/**
+	 * @return the sorted cells of the edges as row * numCols + col
+	 */
+	private static long[] cells(int[] rows, int[] cols, int numEdges, int numCols) {
+		long[] cells = new long[numEdges];
+		for(int e = 0; e < numEdges; e++) {
+			cells[e] = (long)rows[e] * numCols + cols[e];
+		}
+		Arrays.sort(cells);
+		return cells;
+	}
+}
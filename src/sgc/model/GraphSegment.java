@@ -1,7 +1,7 @@
 package sgc.model;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -34,16 +34,32 @@ public class GraphSegment {
 	DenseMatrix64F rowsPerPartition;
 	DenseMatrix64F colsPerPartition;
 	DenseMatrix64F blocksSize; 
-	List<DenseMatrix64F> graphSnapshots = new ArrayList<DenseMatrix64F>();
-	DenseMatrix64F graph;
-	Map<Integer, Integer> srcNodes = new HashMap<Integer, Integer>();
-	Map<Integer, Integer> dstNodes = new HashMap<Integer, Integer>();
+	//the graphs added to the segment, the aggregated graph does not depend on them
+	SnapshotStore snapshotStore = new MemorySnapshotStore();
+	AdjacencyGraph graph;
+	//false while the aggregated graph is the graph given to the constructor
+	boolean ownsGraph = true;
+	PartitionAssignment srcPartitions;
+	PartitionAssignment dstPartitions;
 	
 	public GraphSegment(int k, int l, DenseMatrix64F graph, DenseMatrix64F rowsPerPartition, 
 			DenseMatrix64F colsPerPartition, Map<Integer, Integer> srcNodes, 
 			Map<Integer, Integer> dstNodes) {
+		this(k, l, new SparseGraph(graph), rowsPerPartition, colsPerPartition, srcNodes, dstNodes);
+	}
+	
+	public GraphSegment(int k, int l, AdjacencyGraph graph, DenseMatrix64F rowsPerPartition, 
+			DenseMatrix64F colsPerPartition, Map<Integer, Integer> srcNodes, 
+			Map<Integer, Integer> dstNodes) {
+		this(k, l, graph, rowsPerPartition, colsPerPartition, new PartitionAssignment(srcNodes, k), 
+				new PartitionAssignment(dstNodes, l));
+	}
+	
+	public GraphSegment(int k, int l, AdjacencyGraph graph, DenseMatrix64F rowsPerPartition, 
+			DenseMatrix64F colsPerPartition, PartitionAssignment srcPartitions, 
+			PartitionAssignment dstPartitions) {
 		Calculations calculations = new Calculations();
-		this.graph = new DenseMatrix64F(graph);
+		this.graph = graph.copy();
 		this.k = k;
 		this.l = l;
 		this.segmentSize = 1;
@@ -52,17 +68,30 @@ public class GraphSegment {
 		this.blocksSize = calculations.calcBlocksSize(segmentSize, rowsPerPartition, colsPerPartition);
 		this.rowsPerPartition = new DenseMatrix64F(rowsPerPartition);
 		this.colsPerPartition = new DenseMatrix64F(colsPerPartition);
-		this.srcNodes = new HashMap<Integer, Integer>(srcNodes);
-		this.dstNodes = new HashMap<Integer, Integer>(dstNodes);
-		this.numberOfOnes = calculations.calcNumberOfOnes(k, l, graph, srcNodes, dstNodes);
+		this.srcPartitions = new PartitionAssignment(srcPartitions);
+		this.dstPartitions = new PartitionAssignment(dstPartitions);
+		this.numberOfOnes = calculations.calcNumberOfOnes(k, l, graph, srcPartitions, dstPartitions);
 		initializeCost();
 	}
 	
+	/**
+	 * Used by SegmentCheckpoint, which sets the fields
+	 */
+	GraphSegment() {
+	}
+	
 	/**
 	 * Fresh-start constructor
 	 */
 	public GraphSegment(DenseMatrix64F graph) {
-		this.graph = new DenseMatrix64F(graph);
+		this(new SparseGraph(graph));
+	}
+	
+	/**
+	 * Fresh-start constructor
+	 */
+	public GraphSegment(AdjacencyGraph graph) {
+		this.graph = graph.copy();
 		this.k = 1;
 		this.l = 1;
 		this.segmentSize = 1;
@@ -70,14 +99,14 @@ public class GraphSegment {
 		this.numOfDstNodes = graph.getNumCols();
 		this.blocksSize = new DenseMatrix64F(1,1);
 		this.blocksSize.add(0, 0, graph.getNumRows() * graph.getNumCols());
-		mapNodes(this.numOfSrcNodes, this.srcNodes);
-		mapNodes(this.numOfDstNodes, this.dstNodes);
+		this.srcPartitions = new PartitionAssignment(this.numOfSrcNodes);
+		this.dstPartitions = new PartitionAssignment(this.numOfDstNodes);
 		this.rowsPerPartition= new DenseMatrix64F(1,1);
 		this.rowsPerPartition.add(0, 0, graph.getNumRows());
 		this.colsPerPartition = new DenseMatrix64F(1,1);
 		this.colsPerPartition.add(0, 0, graph.getNumCols());
 		this.numberOfOnes = new DenseMatrix64F(1,1);
-		this.numberOfOnes.add(0, 0, CommonOps.elementSum(graph));
+		this.numberOfOnes.add(0, 0, graph.elementSum());
 		initializeCost();
 	}
 	
@@ -85,8 +114,26 @@ public class GraphSegment {
 	 * Resume constructor
 	 */
 	public GraphSegment(GraphSegment lastGraphSegment, DenseMatrix64F graph) {
-		Calculations calculations = new Calculations();
+		this(lastGraphSegment, new SparseGraph(graph));
+	}
+	
+	/**
+	 * Resume constructor
+	 */
+	public GraphSegment(GraphSegment lastGraphSegment, AdjacencyGraph graph) {
+		this(lastGraphSegment, graph, new Calculations().calcNumberOfOnes(lastGraphSegment.getK(), 
+				lastGraphSegment.getL(), graph, lastGraphSegment.getSrcPartitions(), 
+				lastGraphSegment.getDstPartitions()));
+	}
+	
+	/**
+	 * Resume constructor with the block counts of the graph already known. The
+	 * graph is copied only when a graph is added to the segment.
+	 * @param numberOfOnes - the number of ones of the graph in the blocks of the last segment
+	 */
+	public GraphSegment(GraphSegment lastGraphSegment, AdjacencyGraph graph, DenseMatrix64F numberOfOnes) {
 		this.graph = graph;
+		this.ownsGraph = false;
 		this.k = lastGraphSegment.getK();
 		this.l = lastGraphSegment.getL();
 		this.segmentSize = 1;
@@ -95,36 +142,38 @@ public class GraphSegment {
 		this.rowsPerPartition = new DenseMatrix64F(lastGraphSegment.getRowsPerPartition());
 		this.colsPerPartition = new DenseMatrix64F(lastGraphSegment.getColsPerPartition());
 		this.blocksSize = lastGraphSegment.getBlocksSize().copy();
-		this.srcNodes.putAll(lastGraphSegment.getSrcNodes());
-		this.dstNodes.putAll(lastGraphSegment.getDstNodes());
-		this.numberOfOnes = calculations.calcNumberOfOnes(this.k, this.l, graph, this.srcNodes, this.dstNodes);
+		this.srcPartitions = new PartitionAssignment(lastGraphSegment.getSrcPartitions());
+		this.dstPartitions = new PartitionAssignment(lastGraphSegment.getDstPartitions());
+		this.numberOfOnes = numberOfOnes;
 		initializeCost();
 	}
 	
 	
-	/**
-	 * This function is used only by the fresh start constructor and initializes
-	 * nodes map
-	 * @param index
-	 * @param nodes
-	 */
-	private void mapNodes(int index, Map<Integer, Integer> nodes) {
-		for(int i = 1; i < index+1; i++) {
-			nodes.put(i, 1);
-		}
-	}
-	
 	private void initializeCost() {
 		GraphCost graphCost = new GraphCost();
 		this.encodingCost = graphCost.segmentEncodingCost(this.numOfSrcNodes, this.numOfDstNodes, this.k, 
 				this.l, this.segmentSize, this.numberOfOnes, this.rowsPerPartition, this.colsPerPartition);
 	}
 		
-	public void addGraph(DenseMatrix64F graph, DenseMatrix64F numberOfOnes) {
+	/**
+	 * @return the encoding cost of the segment if a graph with the input block
+	 * counts was added, computed from the block counts alone
+	 */
+	public double mergedEncodingCost(DenseMatrix64F numberOfOnes) {
+		GraphCost graphCost = new GraphCost();
+		DenseMatrix64F mergedNumberOfOnes = this.numberOfOnes.copy();
+		CommonOps.addEquals(mergedNumberOfOnes, numberOfOnes);
+		return graphCost.segmentEncodingCost(this.numOfSrcNodes, this.numOfDstNodes, this.k, this.l, 
+				this.segmentSize+1, mergedNumberOfOnes, this.rowsPerPartition, this.colsPerPartition);
+	}
+	
+	public void addGraph(AdjacencyGraph graph, DenseMatrix64F numberOfOnes) throws IOException {
 		GraphCost graphCost = new GraphCost();
+		//stored first, so a failed store leaves the segment as it was
+		this.snapshotStore.add(graph);
 		this.segmentSize++;
-		this.graphSnapshots.add(graph);
-		CommonOps.addEquals(this.graph, graph);
+		ownGraph();
+		this.graph.addEquals(graph);
 		CommonOps.addEquals(this.numberOfOnes, numberOfOnes);
 		this.encodingCost = graphCost.segmentEncodingCost(this.numOfSrcNodes, this.numOfDstNodes, this.k, this.l, 
 				this.segmentSize, this.numberOfOnes, this.rowsPerPartition, this.colsPerPartition);
@@ -142,11 +191,22 @@ public class GraphSegment {
 //				this.segmentSize, this.numberOfOnes, this.rowsPerPartition, this.colsPerPartition);
 //	}
 	
-	public void removeGraph(DenseMatrix64F graph, DenseMatrix64F numberOfOnes) {
+	/**
+	 * Copies the aggregated graph before it is changed, if the segment shares it
+	 */
+	private void ownGraph() {
+		if(!this.ownsGraph) {
+			this.graph = this.graph.copy();
+			this.ownsGraph = true;
+		}
+	}
+	
+	public void removeGraph(AdjacencyGraph graph, DenseMatrix64F numberOfOnes) {
 		GraphCost graphCost = new GraphCost();
 		this.segmentSize--;
 		//this.graphSnapshots.remove(this.graphSnapshots.size()-1);
-		CommonOps.subEquals(this.graph, graph);
+		ownGraph();
+		this.graph.subEquals(graph);
 		CommonOps.subEquals(this.numberOfOnes, numberOfOnes);
 		this.encodingCost = graphCost.segmentEncodingCost(this.numOfSrcNodes, this.numOfDstNodes, this.k, this.l, 
 				this.segmentSize, this.numberOfOnes, this.rowsPerPartition, this.colsPerPartition);
@@ -208,7 +268,7 @@ public class GraphSegment {
 		return segmentSize;
 	}
 	
-	public DenseMatrix64F getGraph() {
+	public AdjacencyGraph getGraph() {
 		return this.graph;
 	}
 		
@@ -220,8 +280,29 @@ public class GraphSegment {
 		return this.numberOfOnes;
 	}
 				
-	public List<DenseMatrix64F> getGraphSnapshots() {
-		return this.graphSnapshots;
+	/**
+	 * @return the graphs added to the segment, read back from its snapshot store
+	 */
+	public List<AdjacencyGraph> getGraphSnapshots() throws IOException {
+		List<AdjacencyGraph> graphSnapshots = new ArrayList<AdjacencyGraph>(this.snapshotStore.size());
+		for(int i = 0; i < this.snapshotStore.size(); i++) {
+			graphSnapshots.add(this.snapshotStore.get(i));
+		}
+		return graphSnapshots;
+	}
+	
+	public SnapshotStore getSnapshotStore() {
+		return this.snapshotStore;
+	}
+	
+	/**
+	 * Sets where the next added graphs are kept, the old store is closed
+	 */
+	public void setSnapshotStore(SnapshotStore snapshotStore) throws IOException {
+		if(this.snapshotStore != snapshotStore) {
+			this.snapshotStore.close();
+		}
+		this.snapshotStore = snapshotStore;
 	}
 	
 	public DenseMatrix64F getRowsPerPartition() {
@@ -232,12 +313,28 @@ public class GraphSegment {
 		return this.colsPerPartition;
 	}
 	
+	public PartitionAssignment getSrcPartitions() {
+		return this.srcPartitions;
+	}
+	
+	public PartitionAssignment getDstPartitions() {
+		return this.dstPartitions;
+	}
+	
+	/**
+	 * @return a copy of the source partitions, the key corresponds to the node id 
+	 * and the value to the partition id
+	 */
 	public Map<Integer, Integer> getSrcNodes() {
-		return this.srcNodes;
+		return this.srcPartitions.toMap();
 	}
 	
+	/**
+	 * @return a copy of the destination partitions, the key corresponds to the node id 
+	 * and the value to the partition id
+	 */
 	public Map<Integer, Integer> getDstNodes() {
-		return this.dstNodes;
+		return this.dstPartitions.toMap();
 	}
 		
 	public double getEncodingCost() {
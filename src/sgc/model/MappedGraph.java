@@ -0,0 +1,200 @@
+package sgc.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.ejml.data.DenseMatrix64F;
+
+/**
+ * Read only view of a binary graph snapshot in a memory mapped SnapshotFile.
+ * The neighbours of every row and of every column are decoded from the file
+ * when they are visited, nothing is copied to the heap when the snapshot is
+ * loaded. The buffer is only read with absolute gets, so a view can be read
+ * by many threads. A copy of the view is a SparseGraph that can be changed.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class MappedGraph implements AdjacencyGraph {
+
+	ByteBuffer buffer;
+	int numRows;
+	int numCols;
+	int numNonZeros;
+	//positions of the line offset tables and of the encoded lines in the buffer
+	int rowIndex;
+	int rowData;
+	int colIndex;
+	int colData;
+
+	MappedGraph(ByteBuffer buffer, int numRows, int numCols, int numNonZeros, int rowIndex, int rowData,
+			int colIndex, int colData) {
+		this.buffer = buffer;
+		this.numRows = numRows;
+		this.numCols = numCols;
+		this.numNonZeros = numNonZeros;
+		this.rowIndex = rowIndex;
+		this.rowData = rowData;
+		this.colIndex = colIndex;
+		this.colData = colData;
+	}
+
+	public int getNumRows() {
+		return this.numRows;
+	}
+
+	public int getNumCols() {
+		return this.numCols;
+	}
+
+	public double get(int row, int col) {
+		int position = this.rowData + this.buffer.getInt(this.rowIndex + 4 * row);
+		int end = this.rowData + this.buffer.getInt(this.rowIndex + 4 * (row+1));
+		//skips the number of neighbours
+		while(this.buffer.get(position++) < 0) {
+		}
+		int neighbour = 0;
+		while(position < end) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = this.buffer.get(position++);
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while(b < 0);
+			neighbour += delta;
+			if(neighbour >= col) {
+				return neighbour == col ? 1 : 0;
+			}
+		}
+		return 0;
+	}
+
+	public int getNumNonZeros() {
+		return this.numNonZeros;
+	}
+
+	public double elementSum() {
+		return this.numNonZeros;
+	}
+
+	public int[] rowNeighbours(int row) {
+		return decodeLine(this.rowIndex, this.rowData, row);
+	}
+
+	public int[] colNeighbours(int col) {
+		return decodeLine(this.colIndex, this.colData, col);
+	}
+
+	/**
+	 * A line is its number of neighbours followed by the gaps between them,
+	 * the first gap is the first neighbour
+	 */
+	private int[] decodeLine(int index, int data, int line) {
+		int position = data + this.buffer.getInt(index + 4 * line);
+		int degree = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = this.buffer.get(position++);
+			degree |= (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0);
+		int[] neighbours = new int[degree];
+		int neighbour = 0;
+		for(int e = 0; e < degree; e++) {
+			int delta = 0;
+			shift = 0;
+			do {
+				b = this.buffer.get(position++);
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while(b < 0);
+			neighbour += delta;
+			neighbours[e] = neighbour;
+		}
+		return neighbours;
+	}
+
+	public SparseGraph copy() {
+		int[] rowPointers = new int[this.numRows+1];
+		int[] colIndices = new int[this.numNonZeros];
+		for(int i = 0; i < this.numRows; i++) {
+			int[] neighbours = rowNeighbours(i);
+			System.arraycopy(neighbours, 0, colIndices, rowPointers[i], neighbours.length);
+			rowPointers[i+1] = rowPointers[i] + neighbours.length;
+		}
+		double[] values = new double[this.numNonZeros];
+		Arrays.fill(values, 1);
+		return new SparseGraph(this.numRows, this.numCols, rowPointers, colIndices, values);
+	}
+
+	/**
+	 * Not supported, the view is read only
+	 */
+	public void addEquals(AdjacencyGraph graph) {
+		throw new UnsupportedOperationException("A mapped graph is read only, change a copy of it");
+	}
+
+	/**
+	 * Not supported, the view is read only
+	 */
+	public void subEquals(AdjacencyGraph graph) {
+		throw new UnsupportedOperationException("A mapped graph is read only, change a copy of it");
+	}
+
+	public void countBlockOnes(int[] rowPartitions, int[] colPartitions, DenseMatrix64F numberOfOnes) {
+		numberOfOnes.zero();
+		int numOfColPartitions = numberOfOnes.getNumCols();
+		for(int i = 0; i < this.numRows; i++) {
+			countLineOnes(this.rowIndex, this.rowData, i, colPartitions, numberOfOnes.data,
+					(rowPartitions[i]-1) * numOfColPartitions);
+		}
+	}
+
+	public void countRowOnes(int row, int[] colPartitions, double[] numOfRowOnes) {
+		Arrays.fill(numOfRowOnes, 0);
+		countLineOnes(this.rowIndex, this.rowData, row, colPartitions, numOfRowOnes, 0);
+	}
+
+	public void countColOnes(int col, int[] rowPartitions, double[] numOfColOnes) {
+		Arrays.fill(numOfColOnes, 0);
+		countLineOnes(this.colIndex, this.colData, col, rowPartitions, numOfColOnes, 0);
+	}
+
+	/**
+	 * Adds one to ones[offset + partition - 1] for every neighbour of the line
+	 */
+	private void countLineOnes(int index, int data, int line, int[] partitions, double[] ones, int offset) {
+		int position = data + this.buffer.getInt(index + 4 * line);
+		int end = data + this.buffer.getInt(index + 4 * (line+1));
+		//skips the number of neighbours
+		while(this.buffer.get(position++) < 0) {
+		}
+		int neighbour = 0;
+		while(position < end) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = this.buffer.get(position++);
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while(b < 0);
+			neighbour += delta;
+			ones[offset + partitions[neighbour]-1] += 1;
+		}
+	}
+
+	public DenseMatrix64F toDense() {
+		DenseMatrix64F matrix = new DenseMatrix64F(this.numRows, this.numCols);
+		for(int i = 0; i < this.numRows; i++) {
+			for(int col : rowNeighbours(i)) {
+				matrix.set(i, col, 1);
+			}
+		}
+		return matrix;
+	}
+}
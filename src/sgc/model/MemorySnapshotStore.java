@@ -0,0 +1,32 @@
+package sgc.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the snapshots in memory as they were added
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class MemorySnapshotStore implements SnapshotStore {
+
+	List<AdjacencyGraph> snapshots = new ArrayList<AdjacencyGraph>();
+
+	public void add(AdjacencyGraph snapshot) {
+		this.snapshots.add(snapshot);
+	}
+
+	public int size() {
+		return this.snapshots.size();
+	}
+
+	public AdjacencyGraph get(int index) {
+		return this.snapshots.get(index);
+	}
+
+	public void close() {
+		this.snapshots.clear();
+	}
+}
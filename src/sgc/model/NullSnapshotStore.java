@@ -0,0 +1,25 @@
+package sgc.model;
+
+/**
+ * Drops the snapshots, only the aggregated graph of the segment is kept
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class NullSnapshotStore implements SnapshotStore {
+
+	public void add(AdjacencyGraph snapshot) {
+	}
+
+	public int size() {
+		return 0;
+	}
+
+	public AdjacencyGraph get(int index) {
+		throw new IndexOutOfBoundsException("The snapshots are not kept");
+	}
+
+	public void close() {
+	}
+}
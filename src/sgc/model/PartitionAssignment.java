@@ -0,0 +1,351 @@
+package sgc.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class models the assignment of the nodes (source or destination)
+ * to partitions. Node ids and partition ids start from one. The partition
+ * of every node is stored in a primitive array and the size and the members
+ * of every partition are maintained alongside, so the assignment can be
+ * updated and copied without boxing. While the journal is on, every change
+ * is logged so it can be undone without copying the assignment.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class PartitionAssignment {
+
+	int numberOfNodes;
+	int numberOfPartitions;
+	//partitions[nodeId-1] is the partition id of the node
+	int[] partitions;
+	//positions[nodeId-1] is the index of the node in the members of its partition
+	int[] positions;
+	int[][] members;
+	int[] sizes;
+	//pairs (nodeId, old partition id) of the moves, or (entry, partition id) of the
+	//partitions that were added or removed, null when the journal is off
+	int[] journal;
+	int journalSize;
+	//journalVersions[i] is the version before the change of the journal entry i
+	long[] journalVersions;
+	//changes with every change of the assignment and is restored by a rollback
+	long version;
+	long lastVersion;
+	static final int addPartitionEntry = 0;
+	static final int removePartitionEntry = -1;
+
+	/**
+	 * Assigns all the nodes to one partition
+	 */
+	public PartitionAssignment(int numberOfNodes) {
+		this.numberOfNodes = numberOfNodes;
+		this.partitions = new int[numberOfNodes];
+		Arrays.fill(this.partitions, 1);
+		this.numberOfPartitions = 1;
+		rebuildMembers();
+	}
+
+	/**
+	 * @param nodes - the key corresponds to the node id and the value to the partition id
+	 * @param numberOfPartitions - the number of partitions, some of them may be empty
+	 */
+	public PartitionAssignment(Map<Integer, Integer> nodes, int numberOfPartitions) {
+		this.numberOfNodes = nodes.size();
+		this.partitions = new int[this.numberOfNodes];
+		this.numberOfPartitions = numberOfPartitions;
+		for(Map.Entry<Integer, Integer> entry : nodes.entrySet()) {
+			int partitionId = entry.getValue();
+			this.partitions[entry.getKey()-1] = partitionId;
+			this.numberOfPartitions = Math.max(this.numberOfPartitions, partitionId);
+		}
+		rebuildMembers();
+	}
+
+	/**
+	 * @param partitions - the partition id of every node, the array is kept
+	 * @param numberOfPartitions - the number of partitions, some of them may be empty
+	 */
+	public PartitionAssignment(int[] partitions, int numberOfPartitions) {
+		this.numberOfNodes = partitions.length;
+		this.partitions = partitions;
+		this.numberOfPartitions = numberOfPartitions;
+		for(int partitionId : partitions) {
+			this.numberOfPartitions = Math.max(this.numberOfPartitions, partitionId);
+		}
+		rebuildMembers();
+	}
+
+	public PartitionAssignment(PartitionAssignment assignment) {
+		set(assignment);
+	}
+
+	/**
+	 * Makes this assignment equal to the input one, reusing the arrays
+	 * when they are large enough. The journal is turned off.
+	 */
+	public void set(PartitionAssignment assignment) {
+		endJournal();
+		this.version = ++this.lastVersion;
+		if(this.partitions == null || this.partitions.length != assignment.numberOfNodes) {
+			this.partitions = new int[assignment.numberOfNodes];
+			this.positions = new int[assignment.numberOfNodes];
+		}
+		this.numberOfNodes = assignment.numberOfNodes;
+		this.numberOfPartitions = assignment.numberOfPartitions;
+		System.arraycopy(assignment.partitions, 0, this.partitions, 0, this.numberOfNodes);
+		System.arraycopy(assignment.positions, 0, this.positions, 0, this.numberOfNodes);
+		if(this.members == null || this.members.length < this.numberOfPartitions) {
+			int[][] newMembers = new int[assignment.members.length][];
+			if(this.members != null) {
+				System.arraycopy(this.members, 0, newMembers, 0, this.members.length);
+			}
+			this.members = newMembers;
+			this.sizes = new int[assignment.members.length];
+		}
+		for(int p = 0; p < this.numberOfPartitions; p++) {
+			int size = assignment.sizes[p];
+			if(this.members[p] == null || this.members[p].length < size) {
+				this.members[p] = new int[assignment.members[p].length];
+			}
+			System.arraycopy(assignment.members[p], 0, this.members[p], 0, size);
+			this.sizes[p] = size;
+		}
+	}
+
+	/**
+	 * Rebuilds the members and the sizes of the partitions from the
+	 * partition of every node
+	 */
+	private void rebuildMembers() {
+		this.positions = new int[this.numberOfNodes];
+		this.sizes = new int[Math.max(this.numberOfPartitions, 1)];
+		for(int i = 0; i < this.numberOfNodes; i++) {
+			this.sizes[this.partitions[i]-1]++;
+		}
+		this.members = new int[this.sizes.length][];
+		for(int p = 0; p < this.sizes.length; p++) {
+			this.members[p] = new int[Math.max(this.sizes[p], 4)];
+			this.sizes[p] = 0;
+		}
+		for(int i = 0; i < this.numberOfNodes; i++) {
+			int p = this.partitions[i]-1;
+			this.positions[i] = this.sizes[p];
+			this.members[p][this.sizes[p]++] = i+1;
+		}
+	}
+
+	public int getNumberOfNodes() {
+		return this.numberOfNodes;
+	}
+
+	public int getNumberOfPartitions() {
+		return this.numberOfPartitions;
+	}
+
+	/**
+	 * @return a number that changes with every change of the assignment, two
+	 * equal versions of the same object mean equal assignments
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	public int getPartition(int nodeId) {
+		return this.partitions[nodeId-1];
+	}
+
+	/**
+	 * @return the backing array, the value at index nodeId-1 is the partition id of the node
+	 */
+	public int[] getLabels() {
+		return this.partitions;
+	}
+
+	public int size(int partitionId) {
+		return this.sizes[partitionId-1];
+	}
+
+	/**
+	 * @return the ids of the nodes of a partition in ascending order
+	 */
+	public int[] members(int partitionId) {
+		int[] nodes = Arrays.copyOf(this.members[partitionId-1], this.sizes[partitionId-1]);
+		Arrays.sort(nodes);
+		return nodes;
+	}
+
+	/**
+	 * Moves a node to a partition
+	 */
+	public void move(int nodeId, int partitionId) {
+		int from = this.partitions[nodeId-1] - 1;
+		int to = partitionId - 1;
+		if(from == to) {
+			return;
+		}
+		log(nodeId, from+1);
+		relocate(nodeId, from, to);
+	}
+
+	private void relocate(int nodeId, int from, int to) {
+		//remove from the old partition by moving its last member in the empty place
+		int position = this.positions[nodeId-1];
+		int last = this.members[from][--this.sizes[from]];
+		this.members[from][position] = last;
+		this.positions[last-1] = position;
+		//append to the new partition
+		if(this.sizes[to] == this.members[to].length) {
+			this.members[to] = Arrays.copyOf(this.members[to], 2 * this.members[to].length);
+		}
+		this.positions[nodeId-1] = this.sizes[to];
+		this.members[to][this.sizes[to]++] = nodeId;
+		this.partitions[nodeId-1] = to+1;
+	}
+
+	/**
+	 * Adds an empty partition
+	 * @return the id of the new partition
+	 */
+	public int addPartition() {
+		if(this.numberOfPartitions == this.members.length) {
+			int capacity = 2 * this.members.length;
+			this.members = Arrays.copyOf(this.members, capacity);
+			this.sizes = Arrays.copyOf(this.sizes, capacity);
+		}
+		if(this.members[this.numberOfPartitions] == null) {
+			this.members[this.numberOfPartitions] = new int[4];
+		}
+		this.sizes[this.numberOfPartitions] = 0;
+		this.numberOfPartitions++;
+		log(addPartitionEntry, this.numberOfPartitions);
+		return this.numberOfPartitions;
+	}
+
+	/**
+	 * Merges the second partition into the first one. The ids of the
+	 * partitions after the second one are decreased by one.
+	 */
+	public void mergePartitions(int partitionId1, int partitionId2) {
+		int[] mergedNodes = members(partitionId2);
+		for(int nodeId : mergedNodes) {
+			move(nodeId, partitionId1);
+		}
+		//shift the partitions after the removed one
+		int[] removed = this.members[partitionId2-1];
+		for(int p = partitionId2; p < this.numberOfPartitions; p++) {
+			this.members[p-1] = this.members[p];
+			this.sizes[p-1] = this.sizes[p];
+			for(int i = 0; i < this.sizes[p-1]; i++) {
+				this.partitions[this.members[p-1][i]-1] = p;
+			}
+		}
+		this.numberOfPartitions--;
+		this.members[this.numberOfPartitions] = removed;
+		this.sizes[this.numberOfPartitions] = 0;
+		log(removePartitionEntry, partitionId2);
+	}
+
+	/**
+	 * Inserts an empty partition with the input id, the ids of the partitions
+	 * from this one on are increased by one. Undoes the removal of a merge.
+	 */
+	private void insertPartition(int partitionId) {
+		if(this.numberOfPartitions == this.members.length) {
+			int capacity = 2 * this.members.length;
+			this.members = Arrays.copyOf(this.members, capacity);
+			this.sizes = Arrays.copyOf(this.sizes, capacity);
+		}
+		int[] spare = this.members[this.numberOfPartitions];
+		for(int p = this.numberOfPartitions; p >= partitionId; p--) {
+			this.members[p] = this.members[p-1];
+			this.sizes[p] = this.sizes[p-1];
+			for(int i = 0; i < this.sizes[p]; i++) {
+				this.partitions[this.members[p][i]-1] = p+1;
+			}
+		}
+		this.members[partitionId-1] = spare != null ? spare : new int[4];
+		this.sizes[partitionId-1] = 0;
+		this.numberOfPartitions++;
+	}
+
+	private void log(int entry, int partitionId) {
+		long previousVersion = this.version;
+		this.version = ++this.lastVersion;
+		if(this.journal == null) {
+			return;
+		}
+		if(this.journalSize + 2 > this.journal.length) {
+			this.journal = Arrays.copyOf(this.journal, 2 * this.journal.length);
+			this.journalVersions = Arrays.copyOf(this.journalVersions, this.journal.length / 2);
+		}
+		this.journalVersions[this.journalSize / 2] = previousVersion;
+		this.journal[this.journalSize++] = entry;
+		this.journal[this.journalSize++] = partitionId;
+	}
+
+	/**
+	 * Starts logging the changes of the assignment, if the journal is not already on
+	 */
+	public void beginJournal() {
+		if(this.journal == null) {
+			this.journal = new int[64];
+			this.journalVersions = new long[32];
+			this.journalSize = 0;
+		}
+	}
+
+	/**
+	 * Turns off the journal and drops the logged changes
+	 */
+	public void endJournal() {
+		this.journal = null;
+		this.journalVersions = null;
+		this.journalSize = 0;
+	}
+
+	/**
+	 * @return the size of the journal, to roll back to later
+	 */
+	public int getJournalSize() {
+		return this.journalSize;
+	}
+
+	/**
+	 * Undoes the changes logged after the journal had the input size. The
+	 * partition of every node is restored, the order of the members of a
+	 * partition may differ.
+	 */
+	public void rollback(int journalSize) {
+		if(journalSize < this.journalSize) {
+			this.version = this.journalVersions[journalSize / 2];
+		}
+		while(this.journalSize > journalSize) {
+			int partitionId = this.journal[--this.journalSize];
+			int entry = this.journal[--this.journalSize];
+			if(entry == addPartitionEntry) {
+				this.numberOfPartitions--;
+			}
+			else if(entry == removePartitionEntry) {
+				insertPartition(partitionId);
+			}
+			else {
+				relocate(entry, this.partitions[entry-1]-1, partitionId-1);
+			}
+		}
+	}
+
+	/**
+	 * @return map, the key corresponds to the node id and the value to the partition id
+	 */
+	public Map<Integer, Integer> toMap() {
+		Map<Integer, Integer> nodes = new HashMap<Integer, Integer>();
+		for(int i = 0; i < this.numberOfNodes; i++) {
+			nodes.put(i+1, this.partitions[i]);
+		}
+		return nodes;
+	}
+}
@@ -0,0 +1,374 @@
+package sgc.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.ejml.data.DenseMatrix64F;
+
+/**
+ * This class writes and reads binary checkpoints of graph segments. A
+ * checkpoint starts with a header (magic number, format version and kind of
+ * content) and ends with the magic number again, so a truncated file is
+ * detected. Numbers are big endian and arrays are written as their length
+ * followed by the values. A checkpoint is written to a temporary file that
+ * replaces the old checkpoint with an atomic move, so a crash leaves either
+ * the old or the new checkpoint. Checkpoints are read from a memory mapped
+ * buffer. Only checkpoints of the current format are read.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class SegmentCheckpoint {
+
+	//"SGCK"
+	static final int magic = 0x5347434B;
+	//2 adds the snapshot store of the segments, 3 keeps the deltas of a delta store
+	public static final int formatVersion = 3;
+	public static final int segmentKind = 1;
+	static final byte sparseGraph = 0;
+	static final byte bitGraph = 1;
+	static final byte nullStore = 0;
+	static final byte memoryStore = 1;
+	static final byte deltaStore = 2;
+	static final byte diskStore = 3;
+
+	/**
+	 * Writes the content of a checkpoint after its header
+	 */
+	public interface Content {
+		public void write(DataOutputStream out) throws IOException;
+	}
+
+	public static void write(final GraphSegment segment, File file) throws IOException {
+		write(file, segmentKind, new Content() {
+			@Override
+			public void write(DataOutputStream out) throws IOException {
+				writeSegment(out, segment);
+			}
+		});
+	}
+
+	public static GraphSegment read(File file) throws IOException {
+		ByteBuffer in = map(file, segmentKind);
+		GraphSegment segment = readSegment(in);
+		checkEnd(in);
+		return segment;
+	}
+
+	/**
+	 * Writes a checkpoint atomically
+	 * @param kind - the kind of the content, checked when the checkpoint is read
+	 */
+	public static void write(File file, int kind, Content content) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		//createTempFile needs a prefix of at least three characters
+		File temporary = File.createTempFile(file.getName()+".part", ".tmp", directory);
+		try {
+			FileOutputStream stream = new FileOutputStream(temporary);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+				out.writeInt(magic);
+				out.writeInt(formatVersion);
+				out.writeInt(kind);
+				content.write(out);
+				out.writeInt(magic);
+				out.flush();
+				stream.getChannel().force(true);
+			}
+			finally {
+				stream.close();
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temporary.toPath());
+		}
+	}
+
+	/**
+	 * Maps a checkpoint and checks its header
+	 * @return the buffer, positioned at the content
+	 */
+	public static ByteBuffer map(File file, int kind) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		ByteBuffer in;
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			randomAccessFile.close();
+		}
+		if(in.remaining() < 16 || in.getInt() != magic) {
+			throw new IOException(file+" is not a checkpoint");
+		}
+		if(in.getInt(in.limit()-4) != magic) {
+			throw new IOException(file+" is truncated");
+		}
+		int version = in.getInt();
+		if(version != formatVersion) {
+			throw new IOException(file+" has checkpoint format "+version+", expected "+formatVersion);
+		}
+		int fileKind = in.getInt();
+		if(fileKind != kind) {
+			throw new IOException(file+" has checkpoint kind "+fileKind+", expected "+kind);
+		}
+		return in;
+	}
+
+	/**
+	 * Checks that the content was read up to the end marker
+	 */
+	public static void checkEnd(ByteBuffer in) throws IOException {
+		if(in.remaining() != 4 || in.getInt() != magic) {
+			throw new IOException("The checkpoint is truncated or corrupted");
+		}
+	}
+
+	public static void writeSegment(DataOutputStream out, GraphSegment segment) throws IOException {
+		out.writeInt(segment.segmentId);
+		out.writeInt(segment.k);
+		out.writeInt(segment.l);
+		out.writeInt(segment.segmentSize);
+		out.writeInt(segment.numOfSrcNodes);
+		out.writeInt(segment.numOfDstNodes);
+		out.writeDouble(segment.encodingCost);
+		writeMatrix(out, segment.numberOfOnes);
+		writeMatrix(out, segment.rowsPerPartition);
+		writeMatrix(out, segment.colsPerPartition);
+		writeMatrix(out, segment.blocksSize);
+		writeAssignment(out, segment.srcPartitions);
+		writeAssignment(out, segment.dstPartitions);
+		writeGraph(out, segment.graph);
+		writeStore(out, segment.snapshotStore);
+	}
+
+	public static GraphSegment readSegment(ByteBuffer in) throws IOException {
+		GraphSegment segment = new GraphSegment();
+		segment.segmentId = in.getInt();
+		segment.k = in.getInt();
+		segment.l = in.getInt();
+		segment.segmentSize = in.getInt();
+		segment.numOfSrcNodes = in.getInt();
+		segment.numOfDstNodes = in.getInt();
+		segment.encodingCost = in.getDouble();
+		segment.numberOfOnes = readMatrix(in);
+		segment.rowsPerPartition = readMatrix(in);
+		segment.colsPerPartition = readMatrix(in);
+		segment.blocksSize = readMatrix(in);
+		segment.srcPartitions = readAssignment(in);
+		segment.dstPartitions = readAssignment(in);
+		segment.graph = readGraph(in);
+		segment.snapshotStore = readStore(in);
+		return segment;
+	}
+
+	/**
+	 * A disk store is saved as its file and the length written so far, a
+	 * delta store with its deltas and the other stores with their snapshots
+	 */
+	private static void writeStore(DataOutputStream out, SnapshotStore store) throws IOException {
+		if(store instanceof DiskSnapshotStore) {
+			DiskSnapshotStore disk = (DiskSnapshotStore)store;
+			out.writeByte(diskStore);
+			out.writeUTF(disk.getFile().getAbsolutePath());
+			out.writeLong(disk.getLength());
+			return;
+		}
+		if(store instanceof DeltaSnapshotStore) {
+			DeltaSnapshotStore delta = (DeltaSnapshotStore)store;
+			out.writeByte(deltaStore);
+			out.writeInt(delta.getKeyframeInterval());
+			out.writeInt(delta.size());
+			if(delta.size() > 0) {
+				AdjacencyGraph first = delta.get(0);
+				out.writeInt(first.getNumRows());
+				out.writeInt(first.getNumCols());
+			}
+			for(int i = 0; i < delta.size(); i++) {
+				writeDelta(out, delta.getDelta(i));
+			}
+			return;
+		}
+		out.writeByte(store instanceof NullSnapshotStore ? nullStore : memoryStore);
+		out.writeInt(store.size());
+		for(int i = 0; i < store.size(); i++) {
+			writeGraph(out, store.get(i));
+		}
+	}
+
+	/**
+	 * A disk store is reopened, the snapshots added after the checkpoint are
+	 * dropped when the next snapshot is added to it
+	 */
+	private static SnapshotStore readStore(ByteBuffer in) throws IOException {
+		byte type = in.get();
+		if(type == diskStore) {
+			byte[] path = new byte[in.getShort() & 0xFFFF];
+			in.get(path);
+			return new DiskSnapshotStore(new File(new String(path, "UTF-8")), in.getLong());
+		}
+		if(type == deltaStore) {
+			DeltaSnapshotStore delta = new DeltaSnapshotStore(in.getInt());
+			int numberOfDeltas = in.getInt();
+			if(numberOfDeltas > 0) {
+				int numRows = in.getInt();
+				int numCols = in.getInt();
+				for(int i = 0; i < numberOfDeltas; i++) {
+					delta.addDelta(readDelta(in), numRows, numCols);
+				}
+			}
+			return delta;
+		}
+		SnapshotStore store;
+		if(type == nullStore) {
+			store = new NullSnapshotStore();
+		}
+		else if(type == memoryStore) {
+			store = new MemorySnapshotStore();
+		}
+		else {
+			throw new IOException("Unknown snapshot store type "+type);
+		}
+		int numberOfSnapshots = in.getInt();
+		for(int i = 0; i < numberOfSnapshots; i++) {
+			store.add(readGraph(in));
+		}
+		return store;
+	}
+
+	private static void writeDelta(DataOutputStream out, EdgeDelta delta) throws IOException {
+		writeInts(out, delta.insertedRows, delta.numberOfInsertions);
+		writeInts(out, delta.insertedCols, delta.numberOfInsertions);
+		writeInts(out, delta.deletedRows, delta.numberOfDeletions);
+		writeInts(out, delta.deletedCols, delta.numberOfDeletions);
+	}
+
+	private static EdgeDelta readDelta(ByteBuffer in) {
+		int[] insertedRows = readInts(in);
+		int[] insertedCols = readInts(in);
+		int[] deletedRows = readInts(in);
+		int[] deletedCols = readInts(in);
+		return new EdgeDelta(insertedRows, insertedCols, insertedRows.length, deletedRows, deletedCols, 
+				deletedRows.length);
+	}
+
+	public static void writeGraph(DataOutputStream out, AdjacencyGraph graph) throws IOException {
+		if(graph instanceof BitGraph) {
+			BitGraph bits = (BitGraph)graph;
+			out.writeByte(bitGraph);
+			out.writeInt(bits.numRows);
+			out.writeInt(bits.numCols);
+			out.writeInt(bits.planes.length);
+			for(long[] plane : bits.planes) {
+				writeLongs(out, plane);
+			}
+			return;
+		}
+		//a mapped graph copies itself to a sparse graph without a dense matrix in between
+		AdjacencyGraph copy = graph instanceof SparseGraph ? graph : graph.copy();
+		SparseGraph sparse = copy instanceof SparseGraph ? (SparseGraph)copy : new SparseGraph(graph.toDense());
+		out.writeByte(sparseGraph);
+		out.writeInt(sparse.numRows);
+		out.writeInt(sparse.numCols);
+		int nonZeros = sparse.rowPointers[sparse.numRows];
+		writeInts(out, sparse.rowPointers, sparse.numRows+1);
+		writeInts(out, sparse.colIndices, nonZeros);
+		out.writeInt(nonZeros);
+		for(int e = 0; e < nonZeros; e++) {
+			out.writeDouble(sparse.values[e]);
+		}
+	}
+
+	public static AdjacencyGraph readGraph(ByteBuffer in) throws IOException {
+		byte type = in.get();
+		int numRows = in.getInt();
+		int numCols = in.getInt();
+		if(type == bitGraph) {
+			long[][] planes = new long[in.getInt()][];
+			for(int p = 0; p < planes.length; p++) {
+				planes[p] = readLongs(in);
+			}
+			return BitGraph.fromPlanes(numRows, numCols, planes);
+		}
+		if(type != sparseGraph) {
+			throw new IOException("Unknown graph type "+type);
+		}
+		int[] rowPointers = readInts(in);
+		int[] colIndices = readInts(in);
+		double[] values = readDoubles(in);
+		return new SparseGraph(numRows, numCols, rowPointers, colIndices, values);
+	}
+
+	private static void writeAssignment(DataOutputStream out, PartitionAssignment assignment) throws IOException {
+		out.writeInt(assignment.getNumberOfPartitions());
+		writeInts(out, assignment.getLabels(), assignment.getNumberOfNodes());
+	}
+
+	private static PartitionAssignment readAssignment(ByteBuffer in) {
+		int numberOfPartitions = in.getInt();
+		return new PartitionAssignment(readInts(in), numberOfPartitions);
+	}
+
+	public static void writeMatrix(DataOutputStream out, DenseMatrix64F matrix) throws IOException {
+		out.writeInt(matrix.getNumRows());
+		out.writeInt(matrix.getNumCols());
+		for(int i = 0; i < matrix.getNumElements(); i++) {
+			out.writeDouble(matrix.data[i]);
+		}
+	}
+
+	public static DenseMatrix64F readMatrix(ByteBuffer in) {
+		int numRows = in.getInt();
+		int numCols = in.getInt();
+		DenseMatrix64F matrix = new DenseMatrix64F(numRows, numCols);
+		in.asDoubleBuffer().get(matrix.data, 0, numRows * numCols);
+		in.position(in.position() + 8 * numRows * numCols);
+		return matrix;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values, int length) throws IOException {
+		out.writeInt(length);
+		for(int i = 0; i < length; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	private static int[] readInts(ByteBuffer in) {
+		int[] values = new int[in.getInt()];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + 4 * values.length);
+		return values;
+	}
+
+	private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+		out.writeInt(values.length);
+		for(long value : values) {
+			out.writeLong(value);
+		}
+	}
+
+	private static long[] readLongs(ByteBuffer in) {
+		long[] values = new long[in.getInt()];
+		in.asLongBuffer().get(values);
+		in.position(in.position() + 8 * values.length);
+		return values;
+	}
+
+	private static double[] readDoubles(ByteBuffer in) {
+		double[] values = new double[in.getInt()];
+		in.asDoubleBuffer().get(values);
+		in.position(in.position() + 8 * values.length);
+		return values;
+	}
+}
@@ -0,0 +1,208 @@
+package sgc.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.ejml.ops.MatrixIO;
+
+import sgc.utils.MatrixMarketReader;
+
+/**
+ * This class writes and maps binary graph snapshots. A snapshot file has a
+ * header (magic number, format version, dimensions, number of edges, flags
+ * and the positions of the sections), an offset table per side and the
+ * encoded neighbours of every row and of every column. A line is encoded as
+ * its number of neighbours followed by the gaps between the ascending
+ * neighbours, every number as a varint of 7 bits per byte. Snapshots are
+ * binary, the values of the cells are not kept. A mapped snapshot is read in
+ * place through a MappedGraph.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class SnapshotFile {
+
+	//"SGCS"
+	static final int magic = 0x53474353;
+	public static final int formatVersion = 1;
+	//the neighbours of the rows are in ascending order
+	public static final int sortedRows = 1;
+	//the neighbours of the columns are in ascending order
+	public static final int sortedCols = 2;
+	static final int headerSize = 40;
+
+	/**
+	 * Writes a snapshot, any non zero cell is an edge
+	 */
+	public static void write(AdjacencyGraph graph, File file) throws IOException {
+		int numRows = graph.getNumRows();
+		int numCols = graph.getNumCols();
+		LineEncoder rows = new LineEncoder(numRows);
+		for(int i = 0; i < numRows; i++) {
+			rows.add(graph.rowNeighbours(i));
+		}
+		LineEncoder cols = new LineEncoder(numCols);
+		for(int j = 0; j < numCols; j++) {
+			cols.add(graph.colNeighbours(j));
+		}
+		long rowIndex = headerSize;
+		long rowData = rowIndex + 4L * (numRows+1);
+		long colIndex = rowData + rows.length;
+		long colData = colIndex + 4L * (numCols+1);
+		if(colData + cols.length > Integer.MAX_VALUE) {
+			throw new IOException("The snapshot does not fit in a file of 2 GB");
+		}
+		File directory = file.getAbsoluteFile().getParentFile();
+		//createTempFile needs a prefix of at least three characters
+		File temporary = File.createTempFile(file.getName()+".part", ".tmp", directory);
+		try {
+			FileOutputStream stream = new FileOutputStream(temporary);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+				out.writeInt(magic);
+				out.writeInt(formatVersion);
+				out.writeInt(numRows);
+				out.writeInt(numCols);
+				out.writeInt(rows.numEdges);
+				out.writeInt(sortedRows | sortedCols);
+				out.writeInt((int)rowIndex);
+				out.writeInt((int)rowData);
+				out.writeInt((int)colIndex);
+				out.writeInt((int)colData);
+				rows.writeTo(out);
+				cols.writeTo(out);
+				out.flush();
+			}
+			finally {
+				stream.close();
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temporary.toPath());
+		}
+	}
+
+	/**
+	 * Maps a snapshot, its lines are decoded when they are visited
+	 */
+	public static MappedGraph map(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		ByteBuffer in;
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file+" is not a snapshot file");
+			}
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			randomAccessFile.close();
+		}
+		if(in.limit() < headerSize || in.getInt(0) != magic) {
+			throw new IOException(file+" is not a snapshot file");
+		}
+		int version = in.getInt(4);
+		if(version != formatVersion) {
+			throw new IOException(file+" has snapshot format "+version+", expected "+formatVersion);
+		}
+		int numRows = in.getInt(8);
+		int numCols = in.getInt(12);
+		int numEdges = in.getInt(16);
+		int flags = in.getInt(20);
+		if((flags & (sortedRows | sortedCols)) != (sortedRows | sortedCols)) {
+			throw new IOException(file+" has unsorted neighbours");
+		}
+		int rowIndex = in.getInt(24);
+		int rowData = in.getInt(28);
+		int colIndex = in.getInt(32);
+		int colData = in.getInt(36);
+		if(rowIndex != headerSize || rowData != rowIndex + 4 * (numRows+1) || colIndex < rowData || 
+				colData != colIndex + 4 * (numCols+1) || colData > in.limit()) {
+			throw new IOException(file+" is truncated or corrupted");
+		}
+		if(colIndex != rowData + in.getInt(rowIndex + 4 * numRows) ||
+				in.limit() != colData + in.getInt(colIndex + 4 * numCols)) {
+			throw new IOException(file+" is truncated or corrupted");
+		}
+		return new MappedGraph(in, numRows, numCols, numEdges, rowIndex, rowData, colIndex, colData);
+	}
+
+	/**
+	 * Converts a snapshot in MatrixMarket format
+	 * @param numRows - the number of rows, -1 to take it from the file
+	 * @param numCols - the number of columns, -1 to take it from the file
+	 */
+	public static void fromMatrixMarket(String path, int numRows, int numCols, File file) throws IOException {
+		write(new MatrixMarketReader().read(path, numRows, numCols, "sparse"), file);
+	}
+
+	/**
+	 * Converts a dense snapshot in the CSV format of MatrixIO
+	 */
+	public static void fromCSV(String path, File file) throws IOException {
+		write(new SparseGraph(MatrixIO.loadCSV(path)), file);
+	}
+
+	/**
+	 * Encodes the lines of one side and their offsets
+	 */
+	private static class LineEncoder {
+		int[] offsets;
+		int numLines = 0;
+		int numEdges = 0;
+		byte[] data = new byte[1 << 12];
+		int length = 0;
+
+		LineEncoder(int numLines) {
+			this.offsets = new int[numLines+1];
+		}
+
+		void add(int[] neighbours) {
+			ensureCapacity(5 * (neighbours.length+1));
+			writeVarint(neighbours.length);
+			int previous = 0;
+			for(int neighbour : neighbours) {
+				if(neighbour < previous) {
+					throw new IllegalArgumentException("The neighbours of line "+this.numLines+" are not sorted");
+				}
+				writeVarint(neighbour - previous);
+				previous = neighbour;
+			}
+			this.numEdges += neighbours.length;
+			this.offsets[++this.numLines] = this.length;
+		}
+
+		private void ensureCapacity(int extra) {
+			if(this.length + extra > this.data.length) {
+				this.data = Arrays.copyOf(this.data, Math.max(2 * this.data.length, this.length + extra));
+			}
+		}
+
+		private void writeVarint(int value) {
+			while((value & ~0x7F) != 0) {
+				this.data[this.length++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			this.data[this.length++] = (byte)value;
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			for(int offset : this.offsets) {
+				out.writeInt(offset);
+			}
+			out.write(this.data, 0, this.length);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package sgc.model;
+
+import java.io.IOException;
+
+/**
+ * This interface models where a graph segment keeps the snapshots that were
+ * added to it. The aggregated graph and the block counts of the segment are
+ * kept by the segment itself, so a store only decides how much memory the
+ * history of the segment takes.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public interface SnapshotStore {
+
+	/**
+	 * Stores the next snapshot of the segment
+	 */
+	public void add(AdjacencyGraph snapshot) throws IOException;
+
+	/**
+	 * @return the number of snapshots that can be read back
+	 */
+	public int size();
+
+	/**
+	 * @param index - zero based, in the order the snapshots were added
+	 */
+	public AdjacencyGraph get(int index) throws IOException;
+
+	/**
+	 * Drops the snapshots and releases the resources of the store
+	 */
+	public void close() throws IOException;
+}
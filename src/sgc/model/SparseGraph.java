@@ -0,0 +1,311 @@
+package sgc.model;
+
+import java.util.Arrays;
+
+import org.ejml.data.DenseMatrix64F;
+
+/**
+ * Sparse implementation of the graph adjacency. The non zero cells are
+ * stored twice, in compressed row (CSR) and in compressed column (CSC)
+ * format, so both source and destination nodes can read their neighbours
+ * directly. Memory and the cost of every pass over the graph are proportional
+ * to the number of edges instead of rows x cols. The compressed columns are
+ * built on the first column access and kept until the graph changes, so a
+ * snapshot that is never read by column does not pay for them.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class SparseGraph implements AdjacencyGraph {
+
+	int numRows;
+	int numCols;
+	//compressed rows
+	int[] rowPointers;
+	int[] colIndices;
+	double[] values;
+	//compressed columns, null until first needed
+	volatile int[] colPointers;
+	int[] rowIndices;
+	double[] colValues;
+
+	/**
+	 * Creates an empty graph
+	 */
+	public SparseGraph(int numRows, int numCols) {
+		this(numRows, numCols, new int[numRows+1], new int[0], new double[0]);
+	}
+
+	public SparseGraph(DenseMatrix64F matrix) {
+		this.numRows = matrix.getNumRows();
+		this.numCols = matrix.getNumCols();
+		int nonZeros = 0;
+		for(int i = 0; i < matrix.getNumElements(); i++) {
+			if(matrix.get(i) != 0) {
+				nonZeros++;
+			}
+		}
+		this.rowPointers = new int[this.numRows+1];
+		this.colIndices = new int[nonZeros];
+		this.values = new double[nonZeros];
+		int index = 0;
+		for(int i = 0; i < this.numRows; i++) {
+			for(int j = 0; j < this.numCols; j++) {
+				double value = matrix.get(i, j);
+				if(value != 0) {
+					this.colIndices[index] = j;
+					this.values[index] = value;
+					index++;
+				}
+			}
+			this.rowPointers[i+1] = index;
+		}
+	}
+
+	/**
+	 * Wraps already compressed rows. The column indices of each row must be
+	 * sorted in ascending order.
+	 */
+	public SparseGraph(int numRows, int numCols, int[] rowPointers, int[] colIndices, double[] values) {
+		this.numRows = numRows;
+		this.numCols = numCols;
+		this.rowPointers = rowPointers;
+		this.colIndices = colIndices;
+		this.values = values;
+	}
+
+	/**
+	 * Creates a binary graph from an edge list. Edges may come in any
+	 * order, duplicates are stored once.
+	 * @param rows - the row index of each edge
+	 * @param cols - the column index of each edge
+	 * @param numEdges - the number of edges of the lists to use
+	 */
+	public static SparseGraph fromEdges(int numRows, int numCols, int[] rows, int[] cols, int numEdges) {
+		int[] rowPointers = new int[numRows+1];
+		for(int e = 0; e < numEdges; e++) {
+			rowPointers[rows[e]+1]++;
+		}
+		for(int i = 0; i < numRows; i++) {
+			rowPointers[i+1] += rowPointers[i];
+		}
+		int[] next = Arrays.copyOf(rowPointers, numRows);
+		int[] colIndices = new int[numEdges];
+		for(int e = 0; e < numEdges; e++) {
+			colIndices[next[rows[e]]++] = cols[e];
+		}
+		//sort every row and drop duplicates
+		int index = 0;
+		int rowStart = 0;
+		for(int i = 0; i < numRows; i++) {
+			int rowEnd = rowPointers[i+1];
+			Arrays.sort(colIndices, rowStart, rowEnd);
+			rowPointers[i] = index;
+			for(int e = rowStart; e < rowEnd; e++) {
+				if(e == rowStart || colIndices[e] != colIndices[e-1]) {
+					colIndices[index++] = colIndices[e];
+				}
+			}
+			rowStart = rowEnd;
+		}
+		rowPointers[numRows] = index;
+		double[] values = new double[index];
+		Arrays.fill(values, 1);
+		return new SparseGraph(numRows, numCols, rowPointers, Arrays.copyOf(colIndices, index), values);
+	}
+
+	/**
+	 * Builds the compressed columns from the compressed rows, if they
+	 * are not already built
+	 */
+	private void buildColumns() {
+		if(this.colPointers != null) {
+			return;
+		}
+		synchronized(this) {
+			if(this.colPointers != null) {
+				return;
+			}
+			int nonZeros = this.rowPointers[this.numRows];
+			int[] pointers = new int[this.numCols+1];
+			this.rowIndices = new int[nonZeros];
+			this.colValues = new double[nonZeros];
+			for(int e = 0; e < nonZeros; e++) {
+				pointers[this.colIndices[e]+1]++;
+			}
+			for(int j = 0; j < this.numCols; j++) {
+				pointers[j+1] += pointers[j];
+			}
+			int[] next = Arrays.copyOf(pointers, this.numCols);
+			for(int i = 0; i < this.numRows; i++) {
+				for(int e = this.rowPointers[i]; e < this.rowPointers[i+1]; e++) {
+					int index = next[this.colIndices[e]]++;
+					this.rowIndices[index] = i;
+					this.colValues[index] = this.values[e];
+				}
+			}
+			this.colPointers = pointers;
+		}
+	}
+
+	public int getNumRows() {
+		return this.numRows;
+	}
+
+	public int getNumCols() {
+		return this.numCols;
+	}
+
+	public double get(int row, int col) {
+		int index = Arrays.binarySearch(this.colIndices, this.rowPointers[row], this.rowPointers[row+1], col);
+		if(index < 0) {
+			return 0;
+		}
+		return this.values[index];
+	}
+
+	public int getNumNonZeros() {
+		return this.rowPointers[this.numRows];
+	}
+
+	public double elementSum() {
+		double sum = 0;
+		for(int e = 0; e < getNumNonZeros(); e++) {
+			sum += this.values[e];
+		}
+		return sum;
+	}
+
+	public int[] rowNeighbours(int row) {
+		return Arrays.copyOfRange(this.colIndices, this.rowPointers[row], this.rowPointers[row+1]);
+	}
+
+	public int[] colNeighbours(int col) {
+		buildColumns();
+		return Arrays.copyOfRange(this.rowIndices, this.colPointers[col], this.colPointers[col+1]);
+	}
+
+	public SparseGraph copy() {
+		return new SparseGraph(this.numRows, this.numCols, this.rowPointers.clone(),
+				this.colIndices.clone(), this.values.clone());
+	}
+
+	public void addEquals(AdjacencyGraph graph) {
+		merge(toSparse(graph), 1);
+	}
+
+	public void subEquals(AdjacencyGraph graph) {
+		merge(toSparse(graph), -1);
+	}
+
+	/**
+	 * Adds row by row the scaled values of the input graph. Cells that
+	 * become zero are removed.
+	 */
+	private void merge(SparseGraph graph, double scale) {
+		if(graph.numRows != this.numRows || graph.numCols != this.numCols) {
+			throw new IllegalArgumentException("Graphs must have the same shape");
+		}
+		int maxNonZeros = getNumNonZeros() + graph.getNumNonZeros();
+		int[] newRowPointers = new int[this.numRows+1];
+		int[] newColIndices = new int[maxNonZeros];
+		double[] newValues = new double[maxNonZeros];
+		int index = 0;
+		for(int i = 0; i < this.numRows; i++) {
+			int a = this.rowPointers[i];
+			int aEnd = this.rowPointers[i+1];
+			int b = graph.rowPointers[i];
+			int bEnd = graph.rowPointers[i+1];
+			while(a < aEnd || b < bEnd) {
+				int col;
+				double value;
+				if(b == bEnd || (a < aEnd && this.colIndices[a] < graph.colIndices[b])) {
+					col = this.colIndices[a];
+					value = this.values[a++];
+				}
+				else if(a == aEnd || graph.colIndices[b] < this.colIndices[a]) {
+					col = graph.colIndices[b];
+					value = scale * graph.values[b++];
+				}
+				else {
+					col = this.colIndices[a];
+					value = this.values[a++] + scale * graph.values[b++];
+				}
+				if(value != 0) {
+					newColIndices[index] = col;
+					newValues[index] = value;
+					index++;
+				}
+			}
+			newRowPointers[i+1] = index;
+		}
+		this.rowPointers = newRowPointers;
+		this.colIndices = Arrays.copyOf(newColIndices, index);
+		this.values = Arrays.copyOf(newValues, index);
+		this.colPointers = null;
+		this.rowIndices = null;
+		this.colValues = null;
+	}
+
+	static SparseGraph toSparse(AdjacencyGraph graph) {
+		if(graph instanceof SparseGraph) {
+			return (SparseGraph)graph;
+		}
+		int[] rowPointers = new int[graph.getNumRows()+1];
+		int[] colIndices = new int[graph.getNumNonZeros()];
+		double[] values = new double[colIndices.length];
+		int index = 0;
+		for(int i = 0; i < graph.getNumRows(); i++) {
+			for(int col : graph.rowNeighbours(i)) {
+				colIndices[index] = col;
+				values[index] = graph.get(i, col);
+				index++;
+			}
+			rowPointers[i+1] = index;
+		}
+		return new SparseGraph(graph.getNumRows(), graph.getNumCols(), rowPointers, colIndices, values);
+	}
+
+	public void countBlockOnes(int[] rowPartitions, int[] colPartitions, DenseMatrix64F numberOfOnes) {
+		numberOfOnes.zero();
+		int numOfColPartitions = numberOfOnes.getNumCols();
+		for(int i = 0; i < this.numRows; i++) {
+			int rowOffset = (rowPartitions[i]-1) * numOfColPartitions;
+			for(int e = this.rowPointers[i]; e < this.rowPointers[i+1]; e++) {
+				if(this.values[e] > 0) {
+					numberOfOnes.data[rowOffset + colPartitions[this.colIndices[e]]-1] += 1;
+				}
+			}
+		}
+	}
+
+	public void countRowOnes(int row, int[] colPartitions, double[] numOfRowOnes) {
+		Arrays.fill(numOfRowOnes, 0);
+		for(int e = this.rowPointers[row]; e < this.rowPointers[row+1]; e++) {
+			if(this.values[e] > 0) {
+				numOfRowOnes[colPartitions[this.colIndices[e]]-1] += 1;
+			}
+		}
+	}
+
+	public void countColOnes(int col, int[] rowPartitions, double[] numOfColOnes) {
+		buildColumns();
+		Arrays.fill(numOfColOnes, 0);
+		for(int e = this.colPointers[col]; e < this.colPointers[col+1]; e++) {
+			if(this.colValues[e] > 0) {
+				numOfColOnes[rowPartitions[this.rowIndices[e]]-1] += 1;
+			}
+		}
+	}
+
+	public DenseMatrix64F toDense() {
+		DenseMatrix64F matrix = new DenseMatrix64F(this.numRows, this.numCols);
+		for(int i = 0; i < this.numRows; i++) {
+			for(int e = this.rowPointers[i]; e < this.rowPointers[i+1]; e++) {
+				matrix.set(i, this.colIndices[e], this.values[e]);
+			}
+		}
+		return matrix;
+	}
+}
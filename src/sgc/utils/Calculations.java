@@ -10,6 +10,9 @@ import org.ejml.data.MatrixIterator;
 import org.ejml.ops.CommonOps;
 import org.ejml.ops.SpecializedOps;
 
+import sgc.model.AdjacencyGraph;
+import sgc.model.PartitionAssignment;
+
 /**
  * This class contains all the calculations the GraphScope
  * algorithm need. There are some are necessary functions
@@ -20,21 +23,33 @@ import org.ejml.ops.SpecializedOps;
  *
  */
 public class Calculations {
+
+	//added to a probability so that log2(0) stays finite
+	static final double tiny = Math.exp(-700);
 				
 	/**
 	 * Caclulates the entropy of each block in a matrix
 	 */
 	public DenseMatrix64F calcBlocksEntropy(DenseMatrix64F blocksSize, DenseMatrix64F numberOfOnes) {
 		DenseMatrix64F blocksEntropy = new DenseMatrix64F(blocksSize.getNumRows(), blocksSize.getNumCols());
-		DenseMatrix64F numOfOnes = numberOfOnes.copy();
-		DenseMatrix64F numberOfZeros = calcNumberOfZeros(numOfOnes, blocksSize);
-		DenseMatrix64F pOnes = calcPropability(numOfOnes, blocksSize);
-		DenseMatrix64F pZeros = calcPropability(numberOfZeros, blocksSize);
-		CommonOps.elementMult(numOfOnes, entropyBits(pOnes));
-		CommonOps.elementMult(numberOfZeros, entropyBits(pZeros));
-		CommonOps.add(numOfOnes, numberOfZeros, blocksEntropy);
+		for(int i = 0; i < blocksEntropy.getNumElements(); i++) {
+			blocksEntropy.data[i] = blockEntropy(numberOfOnes.get(i), blocksSize.get(i));
+		}
 		return blocksEntropy;
 	}
+	
+	/**
+	 * Calculates the entropy of a block, n1*-log2(n1/B) + n0*-log2(n0/B),
+	 * with the same operations as the matrix form so the costs are the same
+	 * @param numberOfOnes - n1
+	 * @param blockSize - B
+	 */
+	public double blockEntropy(double numberOfOnes, double blockSize) {
+		double numberOfZeros = -numberOfOnes + blockSize;
+		double entropyOnes = -LogTable.log2(numberOfOnes / blockSize + tiny);
+		double entropyZeros = -LogTable.log2(numberOfZeros / blockSize + tiny);
+		return numberOfOnes * entropyOnes + numberOfZeros * entropyZeros;
+	}
 		
 	/**
 	 * Calculates the cross entropy
@@ -120,6 +135,29 @@ public class Calculations {
 		return numOfOnes;
 	}
 		
+	/**
+	 * Calculates the number of ones in each block of a sparse graph. The
+	 * cost is proportional to the number of edges.
+	 * @return matrix with dimensions [numOfRowPartitions, numOfColPartitions]
+	 */
+	public DenseMatrix64F calcNumberOfOnes(int k, int l, AdjacencyGraph graph, Map<Integer, Integer> srcNodes,
+			Map<Integer, Integer> dstNodes) {
+		DenseMatrix64F numOfOnes = new DenseMatrix64F(k ,l);
+		graph.countBlockOnes(partitionLabels(srcNodes), partitionLabels(dstNodes), numOfOnes);
+		return numOfOnes;
+	}
+	
+	/**
+	 * Calculates the number of ones in each block of a sparse graph
+	 * @return matrix with dimensions [numOfRowPartitions, numOfColPartitions]
+	 */
+	public DenseMatrix64F calcNumberOfOnes(int k, int l, AdjacencyGraph graph, PartitionAssignment srcPartitions,
+			PartitionAssignment dstPartitions) {
+		DenseMatrix64F numOfOnes = new DenseMatrix64F(k ,l);
+		graph.countBlockOnes(srcPartitions.getLabels(), dstPartitions.getLabels(), numOfOnes);
+		return numOfOnes;
+	}
+	
 	/**
 	 * Calculates the number of ones in from a column
 	 * @param index
@@ -129,18 +167,16 @@ public class Calculations {
 	 * @param searchK
 	 * @return matrix with dimensions [numOfRowPartitions,1]
 	 */
-	public DenseMatrix64F calcColOnes(int columnId, int numOfRowPartitions, DenseMatrix64F graphSnapshot, 
+	public DenseMatrix64F calcColOnes(int columnId, int numOfRowPartitions, DenseMatrix64F graph, 
 			Map<Integer, Integer> yNodes, boolean searchK) {
-		DenseMatrix64F graph = new DenseMatrix64F(graphSnapshot);
-		if(searchK) {
-			CommonOps.transpose(graph);
-		}
+		//read the graph in place, the source nodes are the rows and the destination nodes the columns
+		int numOfYNodes = searchK ? graph.getNumCols() : graph.getNumRows();
 		DenseMatrix64F numOfColOnes = new DenseMatrix64F(numOfRowPartitions, 1);
 		double value;
 		for(Map.Entry<Integer, Integer> yNode : yNodes.entrySet()) {
 			int yNodeId = yNode.getKey();
 			int yNodePartitionId = yNode.getValue();
-			if(yNodes.size() != graph.getNumRows()) {
+			if(searchK == (yNodes.size() == numOfYNodes)) {
 				value = graph.get(columnId-1, yNodeId-1);
 			}
 			else {
@@ -153,6 +189,48 @@ public class Calculations {
 		return numOfColOnes;
 	}
 	
+	/**
+	 * Calculates the number of ones in from a column by reading only the
+	 * neighbours of the node
+	 * @param columnId - the id of the node
+	 * @param yPartitions - the partition id of every node of the other side
+	 * @param searchK - true if the node is a source node (a row of the graph)
+	 * @return matrix with dimensions [numOfRowPartitions,1]
+	 */
+	public DenseMatrix64F calcColOnes(int columnId, int numOfRowPartitions, AdjacencyGraph graph, 
+			int[] yPartitions, boolean searchK) {
+		DenseMatrix64F numOfColOnes = new DenseMatrix64F(numOfRowPartitions, 1);
+		calcColOnes(columnId, graph, yPartitions, searchK, numOfColOnes.data);
+		return numOfColOnes;
+	}
+	
+	/**
+	 * Same as above, but writes the counts to an array of the caller so
+	 * the loops over the nodes do not allocate
+	 * @param numOfColOnes - array with length numOfRowPartitions, overwritten
+	 */
+	public void calcColOnes(int columnId, AdjacencyGraph graph, int[] yPartitions, boolean searchK, 
+			double[] numOfColOnes) {
+		if(searchK) {
+			graph.countRowOnes(columnId-1, yPartitions, numOfColOnes);
+		}
+		else {
+			graph.countColOnes(columnId-1, yPartitions, numOfColOnes);
+		}
+	}
+	
+	/**
+	 * @param nodes - the key corresponds to the node id and the value to the partition id
+	 * @return array where the value at index nodeId-1 is the partition id of the node
+	 */
+	public int[] partitionLabels(Map<Integer, Integer> nodes) {
+		int[] labels = new int[nodes.size()];
+		for(Map.Entry<Integer, Integer> entry : nodes.entrySet()) {
+			labels[entry.getKey()-1] = entry.getValue();
+		}
+		return labels;
+	}
+	
 	/**
 	 * Given the entropy value this function finds the id of
 	 * the partitions tha corresponds to this value
@@ -248,7 +326,6 @@ public class Calculations {
 		DenseMatrix64F mat = new DenseMatrix64F(matrix);
 		int stopCol = mat.getNumCols();
 		int stopRow = mat.getNumRows();
-		double tiny = Math.exp(-700);
 		MatrixIterator iter = mat.iterator(false, 0, 0, stopRow-1, stopCol-1);
 		while(iter.hasNext()) {
 			double value = iter.next();
@@ -278,14 +355,7 @@ public class Calculations {
 	 * @return Return log2 of x, defining log2(0) = 0 and rounding up
 	 */
 	public double encodingBits(double x) {
-		double encodingBits;
-		if(x == 0) {
-			encodingBits = 0;
-		}
-		else {
-			encodingBits = Math.ceil(log2(x));
-		}
-		return encodingBits;
+		return LogTable.encodingBits(x);
 	}
 	
 	/**
@@ -293,12 +363,7 @@ public class Calculations {
 	 * @param x
 	 */
 	public double log2(double x) {
-		if(x < 1) {
-			return -Math.abs((Math.log(x)/Math.log(2)));
-		}
-		else {
-			return Math.abs((Math.log(x)/Math.log(2)));
-		}
+		return LogTable.log2(x);
 	}
 	
 	public void eraseZeroPartitions(Map<Integer, Integer> nodes) {
@@ -315,12 +380,7 @@ public class Calculations {
 	}
 	
 	public int logstar(double x) {
-		int numberOfBits = 0;
-	    while(x > 1) {
-	    	numberOfBits = numberOfBits + 1;
-	    	x = log2(x);
-	    }
-	    return numberOfBits;
+		return LogTable.logstar(x);
 	}
 	
 	public DenseMatrix64F logstar(DenseMatrix64F matrix) {
@@ -0,0 +1,56 @@
+package sgc.utils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class sums the resource counts of many snapshots. The range of
+ * snapshots is split in halves between fork/join workers and the two sums are
+ * merged by adding the smaller map to the larger one, so every merge costs the
+ * size of the smaller map. The maps of the snapshots are changed in place.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class CountMergeTask extends RecursiveTask<Map<String, Integer>> {
+
+	private static final long serialVersionUID = 1L;
+
+	List<Map<String, Integer>> counts;
+	int first;
+	int last;
+
+	/**
+	 * Sums the counts with first <= index < last, the range must not be empty
+	 */
+	public CountMergeTask(List<Map<String, Integer>> counts, int first, int last) {
+		this.counts = counts;
+		this.first = first;
+		this.last = last;
+	}
+
+	@Override
+	protected Map<String, Integer> compute() {
+		if(this.last - this.first == 1) {
+			return this.counts.get(this.first);
+		}
+		int middle = (this.first + this.last) >>> 1;
+		CountMergeTask left = new CountMergeTask(this.counts, this.first, middle);
+		CountMergeTask right = new CountMergeTask(this.counts, middle, this.last);
+		right.fork();
+		Map<String, Integer> sum = left.compute();
+		Map<String, Integer> other = right.join();
+		if(other.size() > sum.size()) {
+			Map<String, Integer> smaller = sum;
+			sum = other;
+			other = smaller;
+		}
+		for(Map.Entry<String, Integer> entry : other.entrySet()) {
+			Integer count = sum.get(entry.getKey());
+			sum.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+		}
+		return sum;
+	}
+}
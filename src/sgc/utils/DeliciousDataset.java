@@ -9,11 +9,14 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 import org.ejml.data.DenseMatrix64F;
 import org.ejml.ops.CommonOps;
@@ -210,20 +213,15 @@ public class DeliciousDataset {
 		try {
 			BufferedWriter out = new BufferedWriter(new FileWriter("data/delicious.2005/top3000.bookmarks"));
 			CSVWriter writer = new CSVWriter(out, CSVWriter.DEFAULT_SEPARATOR, CSVWriter.NO_QUOTE_CHARACTER);
-			System.out.println("Sorting bookmarks....");
-			Map<String, Integer> sortedByCountTags = sortByValue(bookmarkCount);
-			System.out.println("End of sorting....");
-			int counter = 1;
+			System.out.println("Selecting bookmarks....");
+			List<Map.Entry<String, Integer>> topBookmarks = selectTop(bookmarkCount, numberOfBookmarks);
+			System.out.println("End of selecting....");
 			System.out.println("Writing most "+numberOfBookmarks+" frequent bookmarks....");
-			for(Map.Entry<String, Integer> entry : sortedByCountTags.entrySet()) {
+			for(Map.Entry<String, Integer> entry : topBookmarks) {
 				String tag = entry.getKey();
 				int count = entry.getValue();
 				String[] values = {tag,String.valueOf(count)};
 				writer.writeNext(values);
-				if(counter == numberOfBookmarks) {
-					break;
-				}
-				counter++;
 			}			
 			System.out.println("End of writing");
 			writer.close();
@@ -244,17 +242,11 @@ public class DeliciousDataset {
 			System.out.println("Writing most "+numberOfTags+" frequent tags....");
 			BufferedWriter out = new BufferedWriter(new FileWriter("data/delicious.2005/top1500.tags"));
 			CSVWriter writer = new CSVWriter(out, CSVWriter.DEFAULT_SEPARATOR, CSVWriter.NO_QUOTE_CHARACTER);
-			Map<String, Integer> sortedByCountTags = sortByValue(tagCount);
-			int counter = 1;
-			for(Map.Entry<String, Integer> entry : sortedByCountTags.entrySet()) {
+			for(Map.Entry<String, Integer> entry : selectTop(tagCount, numberOfTags)) {
 				String tag = entry.getKey();
 				int count = entry.getValue();
 				String[] values = {tag,String.valueOf(count)};
 				writer.writeNext(values);
-				if(counter == numberOfTags) {
-					break;
-				}
-				counter++;
 			}
 			System.out.println("End of writing");
 			writer.close();
@@ -450,6 +442,34 @@ public class DeliciousDataset {
 		
 	}
 	
+	/**
+	 * Reads the first column of a csv file of resources, like the top tags
+	 * or the top bookmarks, the resource of line i gets the id i. The lines
+	 * are not quoted, so a bookmark with a "," can repeat the first column
+	 * of another line, the repeat keeps its own line id.
+	 * @return the resources in a dictionary
+	 */
+	public StringDictionary readDictionary(String path) throws IOException {
+		StringDictionary dictionary = new StringDictionary();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path)));
+		try {
+			String line;
+			int lineNumber = 1;
+			while((line = reader.readLine()) != null) {
+				String[] parts = line.split(",");
+				if(dictionary.contains(parts[0])) {
+					System.out.println(path+": line "+lineNumber+" repeats "+parts[0]);
+				}
+				dictionary.append(parts[0]);
+				lineNumber++;
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return dictionary;
+	}
+	
 	/**
 	 * Read the top bookmarks from the csv file
 	 * @return the top bookmarks stores in a map
@@ -559,7 +579,8 @@ public class DeliciousDataset {
 	}
 	
 	/**
-	 * Returns the key of a map given a value.
+	 * Returns the key of a map given a value. The whole map is scanned,
+	 * repeated lookups belong to a StringDictionary.
 	 */
 	public String getKeyByValue(Map<String, Integer> map, int value) {
 		String key = null;
@@ -596,6 +617,41 @@ public class DeliciousDataset {
 		return linesPerPartition;
 	}
 	
+	/**
+	 * Selects the most frequent resources with a min heap of numberOfTop
+	 * entries, the map is visited once and is not sorted. Equal counts are
+	 * ordered by name.
+	 * @return the selected resources by descending count
+	 */
+	public List<Map.Entry<String, Integer>> selectTop(Map<String, Integer> counts, int numberOfTop) {
+		CountComparator countComparator = new CountComparator();
+		PriorityQueue<Map.Entry<String, Integer>> heap = new PriorityQueue<Map.Entry<String, Integer>>(
+				Math.max(1, Math.min(numberOfTop, counts.size())), countComparator);
+		for(Map.Entry<String, Integer> entry : counts.entrySet()) {
+			if(heap.size() < numberOfTop) {
+				heap.add(entry);
+			}
+			else if(numberOfTop > 0 && countComparator.compare(entry, heap.peek()) > 0) {
+				heap.poll();
+				heap.add(entry);
+			}
+		}
+		List<Map.Entry<String, Integer>> top = new ArrayList<Map.Entry<String, Integer>>(heap);
+		Collections.sort(top, Collections.reverseOrder(countComparator));
+		return top;
+	}
+	
+	/**
+	 * Sums the counts of the snapshots, the maps are merged in pairs by
+	 * the workers of the pool and are changed in place
+	 */
+	public Map<String, Integer> mergeCounts(List<Map<String, Integer>> counts, ForkJoinPool pool) {
+		if(counts.isEmpty()) {
+			return new HashMap<String, Integer>();
+		}
+		return pool.invoke(new CountMergeTask(counts, 0, counts.size()));
+	}
+	
 	/**
 	 * Sorts the map by value
 	 */
@@ -624,3 +680,18 @@ class ValueComparator implements Comparator<String> {
     }
 }
 
+/**
+ * Orders resources by ascending count and, for equal counts, by descending
+ * name, so the least frequent resource is the head of a heap
+ */
+class CountComparator implements Comparator<Map.Entry<String, Integer>> {
+
+	public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+		int order = a.getValue().compareTo(b.getValue());
+		if(order != 0) {
+			return order;
+		}
+		return b.getKey().compareTo(a.getKey());
+	}
+}
+
@@ -0,0 +1,409 @@
+package sgc.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.ejml.ops.MatrixIO;
+
+import au.com.bytecode.opencsv.CSVWriter;
+import sgc.model.SnapshotFile;
+import sgc.model.SparseGraph;
+
+/**
+ * This class prepares a Delicious crawl in one pass over the raw snapshot
+ * files. Every file is read and counted once, by its own task, and its
+ * triplets are kept as ids of the bookmarks and tags of the file. The counts
+ * of the files are merged in parallel and the most frequent bookmarks and
+ * tags are selected with a heap. The resources of every snapshot and the
+ * bookmark - tag graphs are then computed from the ids, without reading the
+ * files again. The filters are the ones of
+ * DeliciousDataset: a triplet is counted when its bookmark has less than 80
+ * chars and its tag has no ",".
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class DeliciousPreprocessor {
+
+	String datasetPath;
+	int numberOfSnapshots;
+	int numberOfTopBookmarks;
+	int numberOfTopTags;
+	int parallelism;
+	//the triplets of every snapshot
+	SnapshotTriplets[] snapshots;
+	Map<String, Integer> bookmarkCount;
+	Map<String, Integer> tagCount;
+	//the most frequent bookmarks and tags, by descending count
+	List<String> topBookmarkNames;
+	List<String> topTagNames;
+	//their ids, starting from one
+	Map<String, Integer> topBookmarks;
+	Map<String, Integer> topTags;
+	SparseGraph[] graphs;
+	int[] topBookmarksPerSnapshot;
+	int[] topTagsPerSnapshot;
+
+	/**
+	 * The triplets of a snapshot file. Bookmarks and tags are numbered in
+	 * the order they first appear in the file, starting from one. Bookmarks
+	 * that are too long are not numbered and get the id zero.
+	 */
+	private static class SnapshotTriplets {
+		Map<String, Integer> bookmarkIds = new HashMap<String, Integer>();
+		Map<String, Integer> tagIds = new HashMap<String, Integer>();
+		List<String> bookmarks = new ArrayList<String>();
+		List<String> tags = new ArrayList<String>();
+		//the triplets whose tag has no ","
+		int[] bookmarkOf = new int[1024];
+		int[] tagOf = new int[1024];
+		int numberOfTriplets = 0;
+		//the counts of the file, until they are merged
+		Map<String, Integer> bookmarkCount;
+		Map<String, Integer> tagCount;
+
+		SnapshotTriplets() {
+			this.bookmarks.add(null);
+			this.tags.add(null);
+		}
+
+		void add(String bookmark, String tag) {
+			int bookmarkId = 0;
+			if(bookmark.length() < 80) {
+				bookmarkId = id(this.bookmarkIds, this.bookmarks, bookmark);
+			}
+			int tagId = id(this.tagIds, this.tags, tag);
+			if(this.numberOfTriplets == this.bookmarkOf.length) {
+				this.bookmarkOf = Arrays.copyOf(this.bookmarkOf, 2 * this.numberOfTriplets);
+				this.tagOf = Arrays.copyOf(this.tagOf, 2 * this.numberOfTriplets);
+			}
+			this.bookmarkOf[this.numberOfTriplets] = bookmarkId;
+			this.tagOf[this.numberOfTriplets++] = tagId;
+		}
+
+		private static int id(Map<String, Integer> ids, List<String> names, String name) {
+			Integer id = ids.get(name);
+			if(id == null) {
+				id = names.size();
+				ids.put(name, id);
+				names.add(name);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * @param datasetPath - the directory of the "snapshot N" files
+	 * @param parallelism - the number of files read at the same time
+	 */
+	public DeliciousPreprocessor(String datasetPath, int numberOfSnapshots, int numberOfTopBookmarks,
+			int numberOfTopTags, int parallelism) {
+		this.datasetPath = datasetPath;
+		this.numberOfSnapshots = numberOfSnapshots;
+		this.numberOfTopBookmarks = numberOfTopBookmarks;
+		this.numberOfTopTags = numberOfTopTags;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Reads the snapshot files and computes the counts, the most frequent
+	 * resources and the graphs
+	 */
+	public void run() throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+		try {
+			List<Future<SnapshotTriplets>> reads = new ArrayList<Future<SnapshotTriplets>>();
+			for(int i = 0; i < this.numberOfSnapshots; i++) {
+				final File file = new File(this.datasetPath, "snapshot "+(i+1));
+				reads.add(pool.submit(new Callable<SnapshotTriplets>() {
+					@Override
+					public SnapshotTriplets call() throws IOException {
+						return readSnapshot(file);
+					}
+				}));
+			}
+			this.snapshots = new SnapshotTriplets[this.numberOfSnapshots];
+			for(int i = 0; i < this.numberOfSnapshots; i++) {
+				this.snapshots[i] = get(reads.get(i));
+			}
+			countResources(pool);
+			DeliciousDataset deliciousDataset = new DeliciousDataset();
+			this.topBookmarkNames = names(deliciousDataset.selectTop(this.bookmarkCount, 
+					this.numberOfTopBookmarks));
+			this.topTagNames = names(deliciousDataset.selectTop(this.tagCount, this.numberOfTopTags));
+			this.topBookmarks = ids(this.topBookmarkNames);
+			this.topTags = ids(this.topTagNames);
+			List<Future<SparseGraph>> builds = new ArrayList<Future<SparseGraph>>();
+			this.topBookmarksPerSnapshot = new int[this.numberOfSnapshots];
+			this.topTagsPerSnapshot = new int[this.numberOfSnapshots];
+			for(int i = 0; i < this.numberOfSnapshots; i++) {
+				final int snapshot = i;
+				builds.add(pool.submit(new Callable<SparseGraph>() {
+					@Override
+					public SparseGraph call() {
+						return createGraph(snapshot);
+					}
+				}));
+			}
+			this.graphs = new SparseGraph[this.numberOfSnapshots];
+			for(int i = 0; i < this.numberOfSnapshots; i++) {
+				this.graphs[i] = get(builds.get(i));
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		}
+		catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("The preprocessing was interrupted", ie);
+		}
+		catch(ExecutionException ee) {
+			if(ee.getCause() instanceof IOException) {
+				throw (IOException)ee.getCause();
+			}
+			throw new IOException("The preprocessing failed", ee.getCause());
+		}
+	}
+
+	/**
+	 * Keeps the triplets (user-bookmark-tag) of a file whose tag has no ","
+	 * and counts them
+	 */
+	private static SnapshotTriplets readSnapshot(File file) throws IOException {
+		SnapshotTriplets triplets = new SnapshotTriplets();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)),
+				1 << 16);
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				//the same fields as line.split("\t"), which drops the trailing empty ones
+				int end = line.length();
+				while(end > 0 && line.charAt(end-1) == '\t') {
+					end--;
+				}
+				int first = line.indexOf('\t');
+				int second = first < 0 ? -1 : line.indexOf('\t', first+1);
+				int third = second < 0 ? -1 : line.indexOf('\t', second+1);
+				int fourth = third < 0 ? -1 : line.indexOf('\t', third+1);
+				if(third < 0 || third >= end || (fourth >= 0 && fourth < end)) {
+					continue;
+				}
+				String tag = line.substring(third+1, end);
+				if(!tag.contains(",")) {
+					triplets.add(line.substring(second+1, third), tag);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		countTriplets(triplets);
+		return triplets;
+	}
+
+	/**
+	 * Counts the resources of a file, a triplet counts for its bookmark and
+	 * for its tag when the bookmark is not too long
+	 */
+	private static void countTriplets(SnapshotTriplets triplets) {
+		int[] bookmarkCounts = new int[triplets.bookmarks.size()];
+		int[] tagCounts = new int[triplets.tags.size()];
+		for(int t = 0; t < triplets.numberOfTriplets; t++) {
+			if(triplets.bookmarkOf[t] != 0) {
+				bookmarkCounts[triplets.bookmarkOf[t]]++;
+				tagCounts[triplets.tagOf[t]]++;
+			}
+		}
+		triplets.bookmarkCount = counts(triplets.bookmarks, bookmarkCounts);
+		triplets.tagCount = counts(triplets.tags, tagCounts);
+	}
+
+	private static Map<String, Integer> counts(List<String> names, int[] localCounts) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for(int id = 1; id < localCounts.length; id++) {
+			if(localCounts[id] > 0) {
+				counts.put(names.get(id), localCounts[id]);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Sums the counts of the snapshots in the pool
+	 */
+	private void countResources(ForkJoinPool pool) {
+		List<Map<String, Integer>> bookmarkCounts = new ArrayList<Map<String, Integer>>();
+		List<Map<String, Integer>> tagCounts = new ArrayList<Map<String, Integer>>();
+		for(SnapshotTriplets snapshot : this.snapshots) {
+			bookmarkCounts.add(snapshot.bookmarkCount);
+			tagCounts.add(snapshot.tagCount);
+			//the maps are merged in place
+			snapshot.bookmarkCount = null;
+			snapshot.tagCount = null;
+		}
+		DeliciousDataset deliciousDataset = new DeliciousDataset();
+		this.bookmarkCount = deliciousDataset.mergeCounts(bookmarkCounts, pool);
+		this.tagCount = deliciousDataset.mergeCounts(tagCounts, pool);
+	}
+
+	private static List<String> names(List<Map.Entry<String, Integer>> top) {
+		List<String> names = new ArrayList<String>(top.size());
+		for(Map.Entry<String, Integer> entry : top) {
+			names.add(entry.getKey());
+		}
+		return names;
+	}
+
+	private static Map<String, Integer> ids(List<String> names) {
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for(String name : names) {
+			ids.put(name, ids.size()+1);
+		}
+		return ids;
+	}
+
+	/**
+	 * Creates the bookmark - tag graph of a snapshot over the most frequent
+	 * resources and counts the ones that appear in it
+	 */
+	private SparseGraph createGraph(int snapshot) {
+		SnapshotTriplets triplets = this.snapshots[snapshot];
+		int[] bookmarkRows = topIds(triplets.bookmarks, this.topBookmarks);
+		int[] tagCols = topIds(triplets.tags, this.topTags);
+		int[] rows = new int[triplets.numberOfTriplets];
+		int[] cols = new int[triplets.numberOfTriplets];
+		boolean[] seenBookmarks = new boolean[bookmarkRows.length];
+		boolean[] seenTags = new boolean[tagCols.length];
+		int numEdges = 0;
+		for(int t = 0; t < triplets.numberOfTriplets; t++) {
+			int bookmarkRow = bookmarkRows[triplets.bookmarkOf[t]];
+			int tagCol = tagCols[triplets.tagOf[t]];
+			if(bookmarkRow > 0 && !seenBookmarks[triplets.bookmarkOf[t]]) {
+				seenBookmarks[triplets.bookmarkOf[t]] = true;
+				this.topBookmarksPerSnapshot[snapshot]++;
+			}
+			if(tagCol > 0 && !seenTags[triplets.tagOf[t]]) {
+				seenTags[triplets.tagOf[t]] = true;
+				this.topTagsPerSnapshot[snapshot]++;
+			}
+			if(bookmarkRow > 0 && tagCol > 0) {
+				rows[numEdges] = bookmarkRow-1;
+				cols[numEdges++] = tagCol-1;
+			}
+		}
+		return SparseGraph.fromEdges(this.numberOfTopBookmarks, this.numberOfTopTags, rows, cols, numEdges);
+	}
+
+	/**
+	 * @return the id among the most frequent resources of every local id, zero if it is not one of them
+	 */
+	private static int[] topIds(List<String> names, Map<String, Integer> top) {
+		int[] topIds = new int[names.size()];
+		for(int id = 1; id < topIds.length; id++) {
+			Integer topId = top.get(names.get(id));
+			topIds[id] = topId == null ? 0 : topId;
+		}
+		return topIds;
+	}
+
+	/**
+	 * Writes the most frequent resources with their counts, the resources
+	 * and edges of every snapshot and the graphs
+	 * @param outputPath - the directory of the results
+	 * @param snapshotFormat - "text" for the dense CSV of MatrixIO, "binary" for a SnapshotFile
+	 */
+	public void writeResults(String outputPath, String snapshotFormat) throws IOException {
+		writeTop(new File(outputPath, "top"+this.numberOfTopBookmarks+".bookmarks"), this.topBookmarkNames,
+				this.bookmarkCount);
+		writeTop(new File(outputPath, "top"+this.numberOfTopTags+".tags"), this.topTagNames, this.tagCount);
+		CSVWriter writer = new CSVWriter(new BufferedWriter(new FileWriter(new File(outputPath,
+				"resourcesPerSnapshot"))), CSVWriter.DEFAULT_SEPARATOR, CSVWriter.NO_QUOTE_CHARACTER);
+		try {
+			String[] header = {"Snapshot","bookmarks", "tags","edges"};
+			writer.writeNext(header);
+			for(int i = 0; i < this.numberOfSnapshots; i++) {
+				String[] values = {String.valueOf(i+1), String.valueOf(this.topBookmarksPerSnapshot[i]),
+						String.valueOf(this.topTagsPerSnapshot[i]), String.valueOf(this.graphs[i].elementSum())};
+				writer.writeNext(values);
+			}
+		}
+		finally {
+			writer.close();
+		}
+		for(int i = 0; i < this.numberOfSnapshots; i++) {
+			File file = new File(outputPath, (i+1)+"delicious.matrix");
+			if(snapshotFormat.equals("binary")) {
+				SnapshotFile.write(this.graphs[i], new File(file.getPath()+".sgcs"));
+			}
+			else {
+				MatrixIO.saveCSV(this.graphs[i].toDense(), file.getPath());
+			}
+		}
+	}
+
+	private static void writeTop(File file, List<String> top, Map<String, Integer> counts) throws IOException {
+		CSVWriter writer = new CSVWriter(new BufferedWriter(new FileWriter(file)), CSVWriter.DEFAULT_SEPARATOR,
+				CSVWriter.NO_QUOTE_CHARACTER);
+		try {
+			for(String name : top) {
+				String[] values = {name, String.valueOf(counts.get(name))};
+				writer.writeNext(values);
+			}
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	public Map<String, Integer> getBookmarkCount() {
+		return this.bookmarkCount;
+	}
+
+	public Map<String, Integer> getTagCount() {
+		return this.tagCount;
+	}
+
+	public Map<String, Integer> getTopBookmarks() {
+		return this.topBookmarks;
+	}
+
+	public Map<String, Integer> getTopTags() {
+		return this.topTags;
+	}
+
+	/**
+	 * @param snapshot - the snapshot id, starting from one
+	 */
+	public SparseGraph getGraph(int snapshot) {
+		return this.graphs[snapshot-1];
+	}
+
+	public int[] getTopBookmarksPerSnapshot() {
+		return this.topBookmarksPerSnapshot;
+	}
+
+	public int[] getTopTagsPerSnapshot() {
+		return this.topTagsPerSnapshot;
+	}
+}
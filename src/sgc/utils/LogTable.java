@@ -0,0 +1,131 @@
+package sgc.utils;
+
+import java.util.Arrays;
+
+/**
+ * Lookup tables of the logarithms the cost computations need. The cost
+ * functions call log2, encodingBits and logstar with integer counts (lines,
+ * partitions and number of ones), so the values of the small integers are
+ * computed once and kept. The tables grow on demand up to maxTableSize, only
+ * the new entries are computed. Larger or non integer arguments are computed
+ * directly. The tables are shared by all threads, a grown table replaces the
+ * old one as a whole so readers never see a partially filled table.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class LogTable {
+
+	static final int initialTableSize = 1 << 10;
+	//about 1 MB for the three tables
+	static final int maxTableSize = 1 << 16;
+	static final double ln2 = Math.log(2);
+
+	static volatile Tables tables = new Tables(initialTableSize, null);
+
+	private static class Tables {
+		final int size;
+		final double[] log2;
+		final double[] encodingBits;
+		final int[] logstar;
+
+		/**
+		 * Copies the entries of the previous tables and computes the rest
+		 */
+		Tables(int size, Tables previous) {
+			this.size = size;
+			int start = 0;
+			if(previous == null) {
+				this.log2 = new double[size];
+				this.encodingBits = new double[size];
+				this.logstar = new int[size];
+			}
+			else {
+				this.log2 = Arrays.copyOf(previous.log2, size);
+				this.encodingBits = Arrays.copyOf(previous.encodingBits, size);
+				this.logstar = Arrays.copyOf(previous.logstar, size);
+				start = previous.size;
+			}
+			for(int n = start; n < size; n++) {
+				this.log2[n] = computeLog2(n);
+				this.encodingBits[n] = n == 0 ? 0 : Math.ceil(this.log2[n]);
+				this.logstar[n] = computeLogstar(n);
+			}
+		}
+	}
+
+	/**
+	 * @return the tables, grown if they do not cover the value, or null if
+	 * the value can not be looked up
+	 */
+	private static Tables tablesFor(double x) {
+		if(x < 0 || x >= maxTableSize || x != (int)x) {
+			return null;
+		}
+		Tables current = tables;
+		if(x < current.size) {
+			return current;
+		}
+		synchronized(LogTable.class) {
+			current = tables;
+			if(x >= current.size) {
+				int size = current.size;
+				while(x >= size) {
+					size = 2 * size;
+				}
+				current = new Tables(Math.min(size, maxTableSize), current);
+				tables = current;
+			}
+			return current;
+		}
+	}
+
+	/**
+	 * Computes the base 2 logarithm of a value, log(0) = -Inf
+	 */
+	public static double log2(double x) {
+		Tables current = tablesFor(x);
+		if(current == null) {
+			return computeLog2(x);
+		}
+		return current.log2[(int)x];
+	}
+
+	/**
+	 * @return log2 of x, defining log2(0) = 0 and rounding up
+	 */
+	public static double encodingBits(double x) {
+		Tables current = tablesFor(x);
+		if(current == null) {
+			return x == 0 ? 0 : Math.ceil(computeLog2(x));
+		}
+		return current.encodingBits[(int)x];
+	}
+
+	public static int logstar(double x) {
+		Tables current = tablesFor(x);
+		if(current == null) {
+			return computeLogstar(x);
+		}
+		return current.logstar[(int)x];
+	}
+
+	private static double computeLog2(double x) {
+		if(x < 1) {
+			return -Math.abs((Math.log(x)/ln2));
+		}
+		else {
+			return Math.abs((Math.log(x)/ln2));
+		}
+	}
+
+	private static int computeLogstar(double x) {
+		int numberOfBits = 0;
+		while(x > 1) {
+			numberOfBits = numberOfBits + 1;
+			x = computeLog2(x);
+		}
+		return numberOfBits;
+	}
+}
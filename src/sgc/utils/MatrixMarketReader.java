@@ -0,0 +1,312 @@
+package sgc.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import sgc.model.AdjacencyGraph;
+import sgc.model.BitGraph;
+import sgc.model.SparseGraph;
+
+/**
+ * This class reads a graph in MatrixMarket coordinate format. The file is
+ * memory mapped and parsed byte by byte, the indices of the entries are
+ * collected in two int arrays and the graph is built from them without a
+ * dense matrix in between. Only the row and column of every entry are read,
+ * any value is taken as an edge. Symmetric files are mirrored.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class MatrixMarketReader {
+
+	//bytes mapped at a time, a file may be larger than one mapping
+	static final int mappingSize = 1 << 28;
+	//bytes copied from the mapping at a time
+	static final int blockSize = 1 << 16;
+
+	String path;
+	boolean symmetric;
+	//the size line: rows, columns and entries
+	long[] size;
+	int numRows;
+	int numCols;
+	int[] rows;
+	int[] cols;
+	int numEdges;
+	//the parser state, kept from block to block
+	int lineNumber;
+	long[] fields = new long[3];
+	int numFields;
+	boolean inField;
+	boolean comment;
+	boolean lineStart;
+	boolean fieldIsNumber;
+	//the first line of the file, it names the format
+	byte[] banner;
+	int bannerLength;
+
+	/**
+	 * Reads a graph with the dimensions of the size line of the file
+	 * @param representation - "sparse" or "bits"
+	 */
+	public AdjacencyGraph read(String path, String representation) throws IOException {
+		return read(path, -1, -1, representation);
+	}
+
+	/**
+	 * Reads a graph with the input dimensions, every entry must be in them
+	 * @param numRows - the number of rows, -1 to take it from the file
+	 * @param numCols - the number of columns, -1 to take it from the file
+	 * @param representation - "sparse" or "bits"
+	 */
+	public AdjacencyGraph read(String path, int numRows, int numCols, String representation)
+			throws IOException {
+		this.path = path;
+		this.numRows = numRows;
+		this.numCols = numCols;
+		this.size = null;
+		this.symmetric = false;
+		this.rows = new int[1024];
+		this.cols = new int[1024];
+		this.numEdges = 0;
+		this.lineNumber = 1;
+		this.numFields = 0;
+		this.inField = false;
+		this.comment = false;
+		this.lineStart = true;
+		this.banner = null;
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long length = channel.size();
+			byte[] block = new byte[blockSize];
+			for(long offset = 0; offset < length; offset += mappingSize) {
+				ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+						Math.min(mappingSize, length - offset));
+				while(mapping.hasRemaining()) {
+					int blockLength = Math.min(blockSize, mapping.remaining());
+					mapping.get(block, 0, blockLength);
+					parse(block, blockLength);
+				}
+			}
+		}
+		finally {
+			file.close();
+		}
+		if(!this.lineStart) {
+			endLine();
+		}
+		if(this.size == null) {
+			throw new IOException(path+" has no size line");
+		}
+		if(representation.equals("bits")) {
+			return BitGraph.fromEdges(this.numRows, this.numCols, this.rows, this.cols, this.numEdges);
+		}
+		return SparseGraph.fromEdges(this.numRows, this.numCols, this.rows, this.cols, this.numEdges);
+	}
+
+	private void parse(byte[] block, int blockLength) throws IOException {
+		for(int i = 0; i < blockLength; i++) {
+			if(this.lineStart && this.size != null) {
+				int lineEnd = parseEntry(block, i, blockLength);
+				if(lineEnd >= 0) {
+					this.lineNumber++;
+					i = lineEnd;
+					continue;
+				}
+			}
+			byte b = block[i];
+			if(b == '\n') {
+				endLine();
+				continue;
+			}
+			if(this.lineStart) {
+				this.lineStart = false;
+				if(b == '%') {
+					this.comment = true;
+					startBanner();
+				}
+			}
+			if(this.comment) {
+				if(this.banner != null && this.bannerLength < this.banner.length) {
+					this.banner[this.bannerLength++] = b;
+				}
+				continue;
+			}
+			if(b == ' ' || b == '\t' || b == '\r') {
+				endField();
+				continue;
+			}
+			if(!this.inField) {
+				this.inField = true;
+				this.fieldIsNumber = true;
+				if(this.numFields < this.fields.length) {
+					this.fields[this.numFields] = 0;
+				}
+			}
+			if(b >= '0' && b <= '9') {
+				//larger values are out of any graph, they only have to stay large
+				if(this.numFields < this.fields.length && this.fields[this.numFields] < Integer.MAX_VALUE) {
+					this.fields[this.numFields] = 10 * this.fields[this.numFields] + (b - '0');
+				}
+			}
+			else {
+				//a real value or a sign, only the indices have to be integers
+				this.fieldIsNumber = false;
+			}
+		}
+	}
+
+	/**
+	 * Reads an entry line that ends in the block, without the state of the
+	 * general parser. Any other line is left to the general parser.
+	 * @return the position of the end of the line, -1 if the line was not read
+	 */
+	private int parseEntry(byte[] block, int lineStart, int blockLength) throws IOException {
+		int i = lineStart;
+		while(i < blockLength && (block[i] == ' ' || block[i] == '\t')) {
+			i++;
+		}
+		int start = i;
+		long row = 0;
+		while(i < blockLength && block[i] >= '0' && block[i] <= '9' && row < Integer.MAX_VALUE) {
+			row = 10 * row + (block[i++] - '0');
+		}
+		if(i == start || i == blockLength || (block[i] != ' ' && block[i] != '\t')) {
+			return -1;
+		}
+		while(i < blockLength && (block[i] == ' ' || block[i] == '\t')) {
+			i++;
+		}
+		start = i;
+		long col = 0;
+		while(i < blockLength && block[i] >= '0' && block[i] <= '9' && col < Integer.MAX_VALUE) {
+			col = 10 * col + (block[i++] - '0');
+		}
+		if(i == start || i == blockLength || (block[i] != ' ' && block[i] != '\t' && block[i] != '\r' && 
+				block[i] != '\n')) {
+			return -1;
+		}
+		//the value, if any, is not read
+		while(i < blockLength && block[i] != '\n') {
+			i++;
+		}
+		if(i == blockLength) {
+			return -1;
+		}
+		addEntry(row, col);
+		return i;
+	}
+
+	private void startBanner() {
+		if(this.lineNumber == 1) {
+			this.banner = new byte[256];
+			this.bannerLength = 0;
+		}
+	}
+
+	private void endField() throws IOException {
+		if(!this.inField) {
+			return;
+		}
+		this.inField = false;
+		if(this.numFields < 2 && !this.fieldIsNumber) {
+			throw new IOException(this.path+": line "+this.lineNumber+" has no integer index");
+		}
+		if(this.numFields == 2 && this.size == null && !this.fieldIsNumber) {
+			throw new IOException(this.path+": line "+this.lineNumber+" has no integer number of entries");
+		}
+		this.numFields++;
+	}
+
+	private void endLine() throws IOException {
+		endField();
+		if(this.banner != null) {
+			readBanner();
+		}
+		else if(!this.comment && this.numFields > 0) {
+			if(this.size == null) {
+				readSize();
+			}
+			else {
+				readEntry();
+			}
+		}
+		this.lineNumber++;
+		this.numFields = 0;
+		this.comment = false;
+		this.lineStart = true;
+	}
+
+	private void readBanner() throws IOException {
+		String line = new String(this.banner, 0, this.bannerLength, "US-ASCII").toLowerCase();
+		this.banner = null;
+		if(!line.startsWith("%%matrixmarket")) {
+			return;
+		}
+		if(line.contains(" array")) {
+			throw new IOException(this.path+" is in array format, only coordinate format is read");
+		}
+		this.symmetric = line.contains("symmetric") || line.contains("hermitian");
+	}
+
+	private void readSize() throws IOException {
+		if(this.numFields < 3) {
+			throw new IOException(this.path+": line "+this.lineNumber+" is not a size line");
+		}
+		this.size = Arrays.copyOf(this.fields, 3);
+		if(this.numRows < 0) {
+			this.numRows = (int)this.size[0];
+		}
+		if(this.numCols < 0) {
+			this.numCols = (int)this.size[1];
+		}
+		long capacity = this.symmetric ? 2 * this.size[2] : this.size[2];
+		if(capacity > this.rows.length && capacity < Integer.MAX_VALUE) {
+			this.rows = new int[(int)capacity];
+			this.cols = new int[(int)capacity];
+		}
+	}
+
+	private void readEntry() throws IOException {
+		if(this.numFields < 2) {
+			throw new IOException(this.path+": line "+this.lineNumber+" has a single index");
+		}
+		addEntry(this.fields[0], this.fields[1]);
+	}
+
+	private void addEntry(long row, long col) throws IOException {
+		if(row < 1 || row > this.numRows || col < 1 || col > this.numCols) {
+			throw new IOException(this.path+": line "+this.lineNumber+" has the entry ("+row+", "+col+
+					") out of the "+this.numRows+" x "+this.numCols+" graph");
+		}
+		addEdge((int)row-1, (int)col-1);
+		if(this.symmetric && row != col) {
+			if(col > this.numRows || row > this.numCols) {
+				throw new IOException(this.path+": line "+this.lineNumber+" has the mirrored entry ("+col+", "+
+						row+") out of the "+this.numRows+" x "+this.numCols+" graph");
+			}
+			addEdge((int)col-1, (int)row-1);
+		}
+	}
+
+	private void addEdge(int row, int col) {
+		if(this.numEdges == this.rows.length) {
+			this.rows = Arrays.copyOf(this.rows, 2 * this.numEdges);
+			this.cols = Arrays.copyOf(this.cols, 2 * this.numEdges);
+		}
+		this.rows[this.numEdges] = row;
+		this.cols[this.numEdges++] = col;
+	}
+
+	/**
+	 * @return the number of entries of the last read file, mirrored entries included
+	 */
+	public int getNumberOfEdges() {
+		return this.numEdges;
+	}
+}
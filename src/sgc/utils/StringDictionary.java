@@ -0,0 +1,289 @@
+package sgc.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class numbers strings densely, starting from one, and finds both the
+ * string of an id and the id of a string in constant time. The strings are
+ * kept as UTF-8 bytes one after the other in a single direct buffer, out of
+ * the heap, and are found through an open addressing table of ids. A string
+ * is decoded when it is asked for. A string can be appended more than once
+ * to number the lines of a file, its id is then the first one, and an id
+ * can be left without a string. Ids are not removed. Any number of threads
+ * can read a dictionary that is no longer changed.
+ *
+ * @author sbeis
+ * @email sot.beis@gmail.com
+ *
+ */
+public class StringDictionary {
+
+	static final Charset utf8 = Charset.forName("UTF-8");
+
+	//the bytes of all the strings
+	ByteBuffer arena;
+	//the string of id i is between offsets[i-1] and offsets[i] in the arena
+	int[] offsets;
+	int[] hashes;
+	int size = 0;
+	//ids by hash, zero for an empty slot, the length is a power of two
+	int[] slots;
+	//the number of ids in the table, appended repeats are not in it
+	int numberOfKeys = 0;
+	//the ids without a string
+	BitSet missing = new BitSet();
+
+	public StringDictionary() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize - the number of strings the dictionary keeps without growing
+	 */
+	public StringDictionary(int expectedSize) {
+		int capacity = Math.max(16, expectedSize);
+		this.arena = ByteBuffer.allocateDirect(16 * capacity);
+		this.offsets = new int[capacity+1];
+		this.hashes = new int[capacity+1];
+		this.slots = new int[Integer.highestOneBit(2 * capacity - 1) << 1];
+	}
+
+	/**
+	 * Builds the dictionary of a map of ids from one. The size is the
+	 * largest id, an id that is not in the map has no string, as the ids
+	 * getTopTags skips when a name repeats. Strings that share an id keep
+	 * the first one by name.
+	 */
+	public static StringDictionary fromMap(Map<String, Integer> ids) {
+		int size = 0;
+		for(int id : ids.values()) {
+			if(id < 1) {
+				throw new IllegalArgumentException("Id "+id+" of the map is not positive");
+			}
+			size = Math.max(size, id);
+		}
+		String[] strings = new String[size+1];
+		for(Map.Entry<String, Integer> entry : ids.entrySet()) {
+			int id = entry.getValue();
+			if(strings[id] == null || entry.getKey().compareTo(strings[id]) < 0) {
+				strings[id] = entry.getKey();
+			}
+		}
+		StringDictionary dictionary = new StringDictionary(size);
+		for(int id = 1; id < strings.length; id++) {
+			if(strings[id] == null) {
+				dictionary.appendMissing();
+			}
+			else {
+				dictionary.append(strings[id]);
+			}
+		}
+		return dictionary;
+	}
+
+	/**
+	 * @return the id of the string, a new one if the string was not in the dictionary
+	 */
+	public int add(String string) {
+		byte[] bytes = string.getBytes(utf8);
+		int hash = hash(string);
+		int slot = find(bytes, hash);
+		if(this.slots[slot] != 0) {
+			return this.slots[slot];
+		}
+		return store(bytes, hash, slot);
+	}
+
+	/**
+	 * Gives the string a new id even if it is already in the dictionary,
+	 * so ids can follow the lines of a file. getId keeps the first id of
+	 * a repeated string.
+	 * @return the new id
+	 */
+	public int append(String string) {
+		byte[] bytes = string.getBytes(utf8);
+		int hash = hash(string);
+		int slot = find(bytes, hash);
+		if(this.slots[slot] != 0) {
+			return store(bytes, hash, -1);
+		}
+		return store(bytes, hash, slot);
+	}
+
+	/**
+	 * Leaves the next id without a string
+	 */
+	private void appendMissing() {
+		this.missing.set(store(new byte[0], 0, -1));
+	}
+
+	/**
+	 * Copies the bytes to the arena with the next id
+	 * @param slot - the empty slot of the string, -1 to leave the table as it is
+	 */
+	private int store(byte[] bytes, int hash, int slot) {
+		if(this.size+1 == this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, 2 * this.offsets.length);
+			this.hashes = Arrays.copyOf(this.hashes, 2 * this.hashes.length);
+		}
+		int start = this.offsets[this.size];
+		if(start + bytes.length > this.arena.capacity()) {
+			long capacity = Math.max(2L * this.arena.capacity(), (long)start + bytes.length);
+			if(capacity > Integer.MAX_VALUE) {
+				throw new IllegalStateException("The strings of the dictionary do not fit in 2 GB");
+			}
+			ByteBuffer arena = ByteBuffer.allocateDirect((int)capacity);
+			ByteBuffer used = this.arena.duplicate();
+			used.clear();
+			used.limit(start);
+			arena.put(used);
+			this.arena = arena;
+		}
+		ByteBuffer arena = this.arena.duplicate();
+		arena.position(start);
+		arena.put(bytes);
+		int id = ++this.size;
+		this.offsets[id] = start + bytes.length;
+		this.hashes[id] = hash;
+		if(slot >= 0) {
+			this.slots[slot] = id;
+			this.numberOfKeys++;
+			//the table is kept at most half full
+			if(2 * this.numberOfKeys > this.slots.length) {
+				rehash();
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * @return the id of the string, zero if it is not in the dictionary
+	 */
+	public int getId(String string) {
+		return this.slots[find(string.getBytes(utf8), hash(string))];
+	}
+
+	public boolean contains(String string) {
+		return getId(string) != 0;
+	}
+
+	/**
+	 * @return the string of the id, from 1 to size, null if the id has no string
+	 */
+	public String getString(int id) {
+		if(id < 1 || id > this.size) {
+			throw new IndexOutOfBoundsException("Id "+id+" is not in 1.."+this.size);
+		}
+		if(this.missing.get(id)) {
+			return null;
+		}
+		byte[] bytes = new byte[this.offsets[id] - this.offsets[id-1]];
+		ByteBuffer arena = this.arena.duplicate();
+		arena.position(this.offsets[id-1]);
+		arena.get(bytes);
+		return new String(bytes, utf8);
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return a map from every string to its id, the first one if it is repeated
+	 */
+	public Map<String, Integer> toMap() {
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for(int id = this.size; id >= 1; id--) {
+			if(!this.missing.get(id)) {
+				ids.put(getString(id), id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the slot of the string, or the empty slot where it would be added
+	 */
+	private int find(byte[] bytes, int hash) {
+		int mask = this.slots.length - 1;
+		int slot = hash & mask;
+		while(this.slots[slot] != 0) {
+			int id = this.slots[slot];
+			if(this.hashes[id] == hash && equalBytes(id, bytes)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @return the slot of the string of the id, or the empty slot where it would be added
+	 */
+	private int find(int id) {
+		int mask = this.slots.length - 1;
+		int slot = this.hashes[id] & mask;
+		while(this.slots[slot] != 0) {
+			int other = this.slots[slot];
+			if(this.hashes[other] == this.hashes[id] && equalIds(other, id)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private boolean equalIds(int id1, int id2) {
+		int start1 = this.offsets[id1-1];
+		int start2 = this.offsets[id2-1];
+		int length = this.offsets[id1] - start1;
+		if(this.offsets[id2] - start2 != length) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(this.arena.get(start1 + i) != this.arena.get(start2 + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean equalBytes(int id, byte[] bytes) {
+		int start = this.offsets[id-1];
+		if(this.offsets[id] - start != bytes.length) {
+			return false;
+		}
+		for(int i = 0; i < bytes.length; i++) {
+			if(this.arena.get(start + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash() {
+		this.slots = new int[2 * this.slots.length];
+		for(int id = 1; id <= this.size; id++) {
+			if(this.missing.get(id)) {
+				continue;
+			}
+			int slot = find(id);
+			if(this.slots[slot] == 0) {
+				this.slots[slot] = id;
+			}
+		}
+	}
+
+	/**
+	 * Spreads the hash code of the string over the low bits of the table
+	 */
+	private static int hash(String string) {
+		int hash = string.hashCode() * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -9,6 +9,8 @@ import java.util.Map;
 
 import org.ejml.data.DenseMatrix64F;
 
+import sgc.model.AdjacencyGraph;
+
 /**
  * This class contains everything we need in order to work
  * with evolving synthetic graphs.
@@ -19,6 +21,9 @@ import org.ejml.data.DenseMatrix64F;
  */
 public class SyntheticDataset {
 
+	//the edges of the last read matrix
+	int numberOfEdges = 0;
+
 	/**
 	 * Reads the ground truth clusterings and stores them to a
 	 * map where key corresponds to the node id and value
@@ -64,20 +69,19 @@ public class SyntheticDataset {
 					new InputStreamReader(new FileInputStream(root)));
 			String line;
 			int lineCounter = 1;
-			int erasedEdges = 0;
-			double maxWeight = 0;
+			int edgeCounter = 0;
 			while((line = reader.readLine()) != null) {
 				String[] parts = line.split(" ");
+				//the first two lines are the header and the size line
 				if(lineCounter > 2) {
 					int srcNode = Integer.parseInt(parts[0]);
 					int dstNode = Integer.parseInt(parts[1]);
 					adjacencyMatrix.set(srcNode-1, dstNode-1, 1);
+					edgeCounter++;
 				}
 				lineCounter++;
 			}
-			System.out.println("Total edges: "+lineCounter);
-			System.out.println("Erased edges: "+erasedEdges);
-			System.out.println("Max weight: "+maxWeight);
+			this.numberOfEdges = edgeCounter;
 			reader.close();
 		}
 		catch(IOException ioe) {
@@ -85,5 +89,29 @@ public class SyntheticDataset {
 		}
 		return adjacencyMatrix;
 	}
+	
+	/**
+	 * Reads a matrix in MatrixMarket format straight into a graph,
+	 * without a dense matrix in between.
+	 * @param root - the root of the dataset
+	 * @param xLines - the number of vetrical lines
+	 * @param yLines - the number of horizontal lines
+	 * @param representation - "sparse" or "bits"
+	 * @return - the graph
+	 */
+	public AdjacencyGraph mtxToGraph(String root, int xLines, int yLines, String representation) 
+			throws IOException {
+		MatrixMarketReader reader = new MatrixMarketReader();
+		AdjacencyGraph graph = reader.read(root, xLines, yLines, representation);
+		this.numberOfEdges = reader.getNumberOfEdges();
+		return graph;
+	}
+
+	/**
+	 * @return the number of edges of the last read matrix
+	 */
+	public int getNumberOfEdges() {
+		return this.numberOfEdges;
+	}
 
 }
@@ -20,6 +20,7 @@ import org.ejml.data.MatrixIterator;
 import org.ejml.ops.MatrixIO;
 
 import sgc.eval.Evaluator;
+import sgc.model.AdjacencyGraph;
 import au.com.bytecode.opencsv.CSVReader;
 import au.com.bytecode.opencsv.CSVWriter;
 
@@ -98,18 +99,18 @@ public class WriteToCSV {
 	 * Write to a csv file the nodes (label of nodes) per partition
 	 */
 	public void labelNodesPerPartition(String labelPath, String nodesPath, String title) {
-		Map<Integer, String> labels = getLabels(labelPath);
 		Map<Integer, Integer> nodesMap = getNodes(nodesPath);
 		Map<Integer, List<Integer>> nodesPerPartition = mapNodesToPartitions(nodesMap);
 		int counter = 0;
 		try {
+			StringDictionary labels = new DeliciousDataset().readDictionary(labelPath);
 			BufferedWriter writer = new BufferedWriter(new FileWriter(title));
 			for(Map.Entry<Integer, List<Integer>> entry : nodesPerPartition.entrySet()) {
 				int partitionId = entry.getKey();
 				List<Integer> nodes = entry.getValue();
 				writer.write("Partition "+partitionId+": {");
 				for(int node : nodes) {
-					String label = labels.get(node);
+					String label = labels.getString(node);
 					
 					writer.write(label+",");
 					counter++;
@@ -227,7 +228,6 @@ public class WriteToCSV {
 	public void writeFilesForGephi(int srcPartitionId, int dstPartitionId, String snapshotPath,
 			List<Double> rowsPerPartition, List<Double> colsPerPartition,
 			Map<String, Integer> tags, Map<String, Integer> bookmarks) {
-		DeliciousDataset deliciousDataset = new DeliciousDataset();
 		double sourceSize = rowsPerPartition.get(srcPartitionId-1);
 		double destinationSize = colsPerPartition.get(dstPartitionId-1);
 		
@@ -283,6 +283,8 @@ public class WriteToCSV {
 		}
 		
 		//write the node list
+		StringDictionary bookmarkLabels = StringDictionary.fromMap(bookmarks);
+		StringDictionary tagLabels = StringDictionary.fromMap(tags);
 		try {
 			BufferedWriter out = new BufferedWriter(new FileWriter("data/node.list.csv"));
 			CSVWriter writer = new CSVWriter(out);
@@ -293,7 +295,7 @@ public class WriteToCSV {
 			
 			//write the nodes that correspond to a bookmark
 			for(int i = 0; i < subGraph.getNumRows(); i++) {
-				String label = deliciousDataset.getKeyByValue(bookmarks, i+1);
+				String label = bookmarkLabels.getString(i+1);
 				String[] values = {label,String.valueOf(nodeId),label,"Bookmark","0",String.valueOf(xPosition)};
 				writer.writeNext(values);
 				nodeId++;
@@ -304,7 +306,7 @@ public class WriteToCSV {
 			nodeId++;
 			//write the nodes tha correspond to a tag
 			for(int i = 0; i < subGraph.getNumCols(); i++) {
-				String label = deliciousDataset.getKeyByValue(tags, i+1);
+				String label = tagLabels.getString(i+1);
 				String[] values = {label,String.valueOf(nodeId),label,"Tag","10",String.valueOf(xPosition)};
 				writer.writeNext(values);
 				nodeId++;
@@ -349,6 +351,35 @@ public class WriteToCSV {
 		}
 	}
 	
+	/**
+	 * Writes the graph to a csv file as an edge list. Only the non zero
+	 * cells are visited.
+	 */
+	public void matrixToCSV(AdjacencyGraph graph, String title) {
+		try {
+			BufferedWriter out = new BufferedWriter(new FileWriter
+					("data/"+title+".mtx"));
+			CSVWriter writer = new CSVWriter(out, CSVWriter.DEFAULT_SEPARATOR, CSVWriter.NO_QUOTE_CHARACTER);
+			for(int i = 0; i < graph.getNumRows(); i++) {
+				for(int j : graph.rowNeighbours(i)) {
+					double value = graph.get(i, j);
+					if(value > 0) {
+						String fromNode = String.valueOf(i+1);
+						String toNode = String.valueOf(j+1);
+						String weight = String.valueOf(value);
+						String[] values = {fromNode, toNode, weight};
+						writer.writeNext(values);
+					}
+				}
+			}
+			writer.close();
+			out.close();
+		} 
+		catch (IOException e) { 
+			e.printStackTrace();
+		}
+	}
+	
 	/**
 	 * 
 	 */